@@ -67,6 +67,12 @@ do
 	    GC_LOG_FILE=${GC_LOG_FILE}-c$1
 	    OUT_LOG_FILE=${OUT_LOG_FILE}-c$1
 	    shift;;
+	-kernel)
+	    ARGS="$ARGS $1 $2"
+            shift
+	    GC_LOG_FILE=${GC_LOG_FILE}-k$1
+	    OUT_LOG_FILE=${OUT_LOG_FILE}-k$1
+	    shift;;
 	-slices)
 	    ARGS="$ARGS $1 $2"
             shift
@@ -79,6 +85,40 @@ do
 	    GC_LOG_FILE=${GC_LOG_FILE}-y$1
 	    OUT_LOG_FILE=${OUT_LOG_FILE}-y$1
 	    shift;;
+	-warmup)
+	    ARGS="$ARGS $1 $2"
+            shift
+	    GC_LOG_FILE=${GC_LOG_FILE}-w$1
+	    OUT_LOG_FILE=${OUT_LOG_FILE}-w$1
+	    shift;;
+	-steadyState)
+	    ARGS="$ARGS $1 $2"
+            shift
+	    GC_LOG_FILE=${GC_LOG_FILE}-ss$1
+	    OUT_LOG_FILE=${OUT_LOG_FILE}-ss$1
+	    shift;;
+	-readers)
+	    ARGS="$ARGS $1 $2"
+            shift
+	    GC_LOG_FILE=${GC_LOG_FILE}-r$1
+	    OUT_LOG_FILE=${OUT_LOG_FILE}-r$1
+	    shift;;
+	-sharedLongTerm)
+	    ARGS="$ARGS $1 $2"
+            shift
+	    GC_LOG_FILE=${GC_LOG_FILE}-sh$1
+	    OUT_LOG_FILE=${OUT_LOG_FILE}-sh$1
+	    shift;;
+	-stripes)
+	    ARGS="$ARGS $1 $2"
+            shift
+	    GC_LOG_FILE=${GC_LOG_FILE}-st$1
+	    OUT_LOG_FILE=${OUT_LOG_FILE}-st$1
+	    shift;;
+	-footprint)
+	    ARGS="$ARGS $1"
+	    AGENT_OPTS=-javaagent:target/churn-1.0.jar
+	    shift;;
 	*)
 	    echo "invalid option $1"
 	    exit 1;;
@@ -92,6 +132,7 @@ fi
 set -o pipefail # without pipefail, the below command will always return zero!
 exec ${JAVA} ${HEAP_OPTS} \
     ${COOPS_OPTS} \
+    ${AGENT_OPTS} \
     ${GC_PRINT_OPTS} \
     ${GC_SPECIFIC_OPTS} \
     $( eval echo ${LOG_OPTS} ) \
@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+/**
+ * An AllocationProfile summarises the allocation behaviour of an application in the terms
+ * TestRunner's allocation engine uses: the fraction of items in each of the four size
+ * classes (mega, large, medium and small) and the odds that an item is promoted into the
+ * long lived work set. A {@link ProfileWorkload} makes its decisions using these figures in
+ * place of the built in odds.
+ *
+ * Profiles are normally built from a JFR recording by {@link ProfileImport} and are saved as
+ * properties files so they can be inspected and edited by hand.
+ */
+public class AllocationProfile
+{
+    /**
+     * the smallest allocation size in bytes counted as medium, large and mega respectively.
+     * the boundaries lie between the nominal sizes of the churn size classes (32 bytes, 1Kb,
+     * 32Kb and 1Mb).
+     */
+    public final static long MEDIUM_BYTES = 256;
+    public final static long LARGE_BYTES = 8 * 1024;
+    public final static long MEGA_BYTES = 256 * 1024;
+
+    /**
+     * the range allowed for the promotion odds
+     */
+    public final static int MIN_PROMOTION_ODDS = 2;
+    public final static int MAX_PROMOTION_ODDS = 1000;
+
+    /**
+     * the fraction of items in each size class indexed by Workload.SIZE_MEGA etc
+     */
+    private double[] sizeFractions;
+
+    /**
+     * the odds against an item being promoted to the long term work set
+     */
+    private int promotionOdds;
+
+    /**
+     * a description of where the profile came from
+     */
+    private String source;
+
+    /**
+     * create a profile matching the built in odds
+     */
+    public AllocationProfile()
+    {
+        sizeFractions = new double[4];
+        double mega = 1.0 / TestRunner.MEGA_LARGE_OBJECT_ODDS;
+        sizeFractions[Workload.SIZE_MEGA] = mega;
+        sizeFractions[Workload.SIZE_LARGE] = (1 - mega) / TestRunner.LARGE_OBJECT_ODDS;
+        sizeFractions[Workload.SIZE_MEDIUM] = ((1 - mega) * 3) / TestRunner.LARGE_OBJECT_ODDS;
+        sizeFractions[Workload.SIZE_SMALL] = 1 - (sizeFractions[0] + sizeFractions[1] + sizeFractions[2]);
+        promotionOdds = TestRunner.PROMOTION_ODDS;
+        source = "default";
+    }
+
+    /**
+     * @param bytes an allocation size in bytes
+     * @return the size class for an allocation of that size
+     */
+    public static int sizeClassOf(long bytes)
+    {
+        if (bytes >= MEGA_BYTES) {
+            return Workload.SIZE_MEGA;
+        } else if (bytes >= LARGE_BYTES) {
+            return Workload.SIZE_LARGE;
+        } else if (bytes >= MEDIUM_BYTES) {
+            return Workload.SIZE_MEDIUM;
+        }
+        return Workload.SIZE_SMALL;
+    }
+
+    /**
+     * set the size class fractions from object counts
+     * @param counts the estimated number of objects allocated in each size class
+     */
+    public void setSizeCounts(double[] counts)
+    {
+        double total = 0;
+        for (double count : counts) {
+            total += count;
+        }
+        if (total <= 0) {
+            return;
+        }
+        for (int i = 0; i < sizeFractions.length; i++) {
+            sizeFractions[i] = counts[i] / total;
+        }
+    }
+
+    /**
+     * set the odds against an item being promoted
+     * @param promotionOdds the odds which must lie between MIN_PROMOTION_ODDS and
+     * MAX_PROMOTION_ODDS
+     * @throws IllegalArgumentException if the odds are out of range
+     */
+    public void setPromotionOdds(int promotionOdds) throws IllegalArgumentException
+    {
+        if (promotionOdds < MIN_PROMOTION_ODDS || promotionOdds > MAX_PROMOTION_ODDS) {
+            throw new IllegalArgumentException("promotion odds must lie between " + MIN_PROMOTION_ODDS + " and " + MAX_PROMOTION_ODDS);
+        }
+        this.promotionOdds = promotionOdds;
+    }
+
+    public double getSizeFraction(int sizeClass)
+    {
+        return sizeFractions[sizeClass];
+    }
+
+    public int getPromotionOdds()
+    {
+        return promotionOdds;
+    }
+
+    public String getSource()
+    {
+        return source;
+    }
+
+    public void setSource(String source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * save the profile as a properties file
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void store(File file) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("source", source);
+        properties.setProperty("size.mega", Double.toString(sizeFractions[Workload.SIZE_MEGA]));
+        properties.setProperty("size.large", Double.toString(sizeFractions[Workload.SIZE_LARGE]));
+        properties.setProperty("size.medium", Double.toString(sizeFractions[Workload.SIZE_MEDIUM]));
+        properties.setProperty("size.small", Double.toString(sizeFractions[Workload.SIZE_SMALL]));
+        properties.setProperty("promotion.odds", Integer.toString(promotionOdds));
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "churn allocation profile");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * load a profile saved as a properties file
+     * @param file the file to read
+     * @return the profile
+     * @throws IOException if the file cannot be read or holds invalid values
+     */
+    public static AllocationProfile load(File file) throws IOException
+    {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        AllocationProfile profile = new AllocationProfile();
+        try {
+            double[] counts = new double[4];
+            counts[Workload.SIZE_MEGA] = Double.parseDouble(properties.getProperty("size.mega", "0"));
+            counts[Workload.SIZE_LARGE] = Double.parseDouble(properties.getProperty("size.large", "0"));
+            counts[Workload.SIZE_MEDIUM] = Double.parseDouble(properties.getProperty("size.medium", "0"));
+            counts[Workload.SIZE_SMALL] = Double.parseDouble(properties.getProperty("size.small", "0"));
+            for (double count : counts) {
+                if (count < 0) {
+                    throw new IOException("negative size fraction in " + file);
+                }
+            }
+            profile.setSizeCounts(counts);
+            String odds = properties.getProperty("promotion.odds");
+            if (odds != null) {
+                profile.promotionOdds = Math.max(MIN_PROMOTION_ODDS, Math.min(MAX_PROMOTION_ODDS, Integer.parseInt(odds.trim())));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid number in " + file + " : " + e.getMessage());
+        }
+        profile.source = properties.getProperty("source", file.getPath());
+        return profile;
+    }
+
+    /**
+     * print the profile
+     * @param str the stream to print to
+     */
+    public void printTo(PrintStream str)
+    {
+        str.println(String.format("allocation profile %s : mega %.4f%% large %.4f%% medium %.4f%% small %.4f%% promotion 1 in %d",
+                source, sizeFractions[Workload.SIZE_MEGA] * 100, sizeFractions[Workload.SIZE_LARGE] * 100,
+                sizeFractions[Workload.SIZE_MEDIUM] * 100, sizeFractions[Workload.SIZE_SMALL] * 100, promotionOdds));
+    }
+}
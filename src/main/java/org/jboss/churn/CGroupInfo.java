@@ -0,0 +1,309 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A CGroupInfo is a snapshot of the CPU quota, memory limit and CPU throttling statistics
+ * of the Linux control group the JVM is running in. Both cgroup v1 and cgroup v2 layouts
+ * are supported. Comparing the throttling counts of two snapshots shows whether latency
+ * spikes seen in between could have been caused by the CPU quota rather than the GC.
+ *
+ * On systems without cgroups (or where the files cannot be read) {@link #read()} returns
+ * null.
+ */
+public class CGroupInfo
+{
+    private final static String CGROUP_ROOT = "/sys/fs/cgroup";
+
+    /**
+     * the cgroup version, 1 or 2
+     */
+    private int version;
+
+    /**
+     * the CPU quota in usecs per period or -1 if unlimited
+     */
+    private long cpuQuota;
+
+    /**
+     * the CPU period in usecs
+     */
+    private long cpuPeriod;
+
+    /**
+     * the memory limit in bytes or -1 if unlimited
+     */
+    private long memoryLimit;
+
+    /**
+     * the number of enforcement periods which have elapsed
+     */
+    private long periods;
+
+    /**
+     * the number of periods in which the group was throttled
+     */
+    private long throttledPeriods;
+
+    /**
+     * the total time the group was throttled for in usecs
+     */
+    private long throttledMicros;
+
+    private CGroupInfo()
+    {
+        cpuQuota = -1;
+        cpuPeriod = 100000;
+        memoryLimit = -1;
+    }
+
+    /**
+     * take a snapshot of the cgroup settings and statistics for this process
+     * @return the snapshot or null if no cgroup information is available
+     */
+    public static CGroupInfo read()
+    {
+        try {
+            if (new File(CGROUP_ROOT, "cgroup.controllers").exists()) {
+                return readV2();
+            } else if (new File(CGROUP_ROOT, "cpu").isDirectory()) {
+                return readV1();
+            }
+        } catch (IOException e) {
+            // treat unreadable files as no cgroup
+        } catch (NumberFormatException e) {
+            // likewise for unexpected content
+        }
+        return null;
+    }
+
+    private static CGroupInfo readV2() throws IOException
+    {
+        CGroupInfo info = new CGroupInfo();
+        info.version = 2;
+        File dir = groupDir(CGROUP_ROOT, "");
+        String[] cpuMax = readLine(new File(dir, "cpu.max"));
+        if (cpuMax != null) {
+            if (!cpuMax[0].equals("max")) {
+                info.cpuQuota = Long.parseLong(cpuMax[0]);
+            }
+            if (cpuMax.length > 1) {
+                info.cpuPeriod = Long.parseLong(cpuMax[1]);
+            }
+        }
+        String[] memoryMax = readLine(new File(dir, "memory.max"));
+        if (memoryMax != null && !memoryMax[0].equals("max")) {
+            info.memoryLimit = Long.parseLong(memoryMax[0]);
+        }
+        info.periods = readStat(new File(dir, "cpu.stat"), "nr_periods");
+        info.throttledPeriods = readStat(new File(dir, "cpu.stat"), "nr_throttled");
+        info.throttledMicros = readStat(new File(dir, "cpu.stat"), "throttled_usec");
+        return info;
+    }
+
+    private static CGroupInfo readV1() throws IOException
+    {
+        CGroupInfo info = new CGroupInfo();
+        info.version = 1;
+        File cpuDir = groupDir(CGROUP_ROOT + "/cpu", "cpu");
+        String[] quota = readLine(new File(cpuDir, "cpu.cfs_quota_us"));
+        if (quota != null && Long.parseLong(quota[0]) > 0) {
+            info.cpuQuota = Long.parseLong(quota[0]);
+        }
+        String[] period = readLine(new File(cpuDir, "cpu.cfs_period_us"));
+        if (period != null) {
+            info.cpuPeriod = Long.parseLong(period[0]);
+        }
+        File memoryDir = groupDir(CGROUP_ROOT + "/memory", "memory");
+        String[] limit = readLine(new File(memoryDir, "memory.limit_in_bytes"));
+        // an unlimited v1 memory limit is reported as a huge page aligned value
+        if (limit != null && Long.parseLong(limit[0]) < Long.MAX_VALUE / 2) {
+            info.memoryLimit = Long.parseLong(limit[0]);
+        }
+        info.periods = readStat(new File(cpuDir, "cpu.stat"), "nr_periods");
+        info.throttledPeriods = readStat(new File(cpuDir, "cpu.stat"), "nr_throttled");
+        // v1 reports throttled time in nsecs
+        info.throttledMicros = readStat(new File(cpuDir, "cpu.stat"), "throttled_time") / 1000;
+        return info;
+    }
+
+    /**
+     * find the directory for this process's group under a controller mount. inside a container
+     * the path listed in /proc/self/cgroup is often not visible in which case the mount root
+     * is the process's group.
+     * @param mount the controller mount point
+     * @param controller the v1 controller name or "" for v2
+     * @return the group directory
+     */
+    private static File groupDir(String mount, String controller) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new FileReader("/proc/self/cgroup"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // lines have the form id:controller[,controller...]:path
+                String[] fields = line.split(":", 3);
+                if (fields.length < 3) {
+                    continue;
+                }
+                boolean match = controller.length() == 0 ? fields[0].equals("0") && fields[1].length() == 0 : false;
+                for (String name : fields[1].split(",")) {
+                    if (controller.length() > 0 && name.equals(controller)) {
+                        match = true;
+                    }
+                }
+                if (match) {
+                    File dir = new File(mount + fields[2]);
+                    if (dir.isDirectory()) {
+                        return dir;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new File(mount);
+    }
+
+    /**
+     * @return the whitespace separated fields of the first line of a file or null if it does
+     * not exist
+     */
+    private static String[] readLine(File file) throws IOException
+    {
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            return (line == null ? null : line.trim().split("\\s+"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the value for a key in a file of key value lines or 0 if it is not present
+     */
+    private static long readStat(File file, String key) throws IOException
+    {
+        if (!file.exists()) {
+            return 0;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 2 && fields[0].equals(key)) {
+                    return Long.parseLong(fields[1]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return 0;
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the number of CPUs worth of time the quota allows or -1 if unlimited
+     */
+    public double getCpuLimit()
+    {
+        if (cpuQuota <= 0 || cpuPeriod <= 0) {
+            return -1;
+        }
+        return (double)cpuQuota / cpuPeriod;
+    }
+
+    public long getMemoryLimit()
+    {
+        return memoryLimit;
+    }
+
+    public long getPeriods()
+    {
+        return periods;
+    }
+
+    public long getThrottledPeriods()
+    {
+        return throttledPeriods;
+    }
+
+    public long getThrottledMicros()
+    {
+        return throttledMicros;
+    }
+
+    /**
+     * @return the number of CPUs this process can actually keep busy, taking into account
+     * both the available processors and the cgroup CPU quota
+     */
+    public static int effectiveCpuCount()
+    {
+        int count = Runtime.getRuntime().availableProcessors();
+        CGroupInfo info = read();
+        if (info != null && info.getCpuLimit() > 0) {
+            count = Math.min(count, (int)Math.ceil(info.getCpuLimit()));
+        }
+        return Math.max(1, count);
+    }
+
+    /**
+     * print the limits recorded in this snapshot
+     * @param str the stream to print to
+     */
+    public void printTo(PrintStream str)
+    {
+        double cpuLimit = getCpuLimit();
+        str.println("cgroup v" + version + " cpu limit " + (cpuLimit > 0 ? String.format("%.2f", cpuLimit) : "none") +
+                " memory limit " + (memoryLimit > 0 ? (memoryLimit / (1024 * 1024)) + " MBs" : "none") +
+                " available processors " + Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * print the throttling which occurred between an earlier snapshot and this one
+     * @param str the stream to print to
+     * @param earlier the earlier snapshot
+     */
+    public void printThrottlingTo(PrintStream str, CGroupInfo earlier)
+    {
+        str.println("cgroup throttled " + (throttledPeriods - earlier.throttledPeriods) + " of " + (periods - earlier.periods) +
+                " periods for " + (throttledMicros - earlier.throttledMicros) / 1000 + " msecs");
+    }
+}
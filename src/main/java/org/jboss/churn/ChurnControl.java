@@ -0,0 +1,421 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A ChurnControl holds the workload parameters which may be changed while a run is in
+ * progress, so that the mix can be varied without throwing away a warmed up, fragmented
+ * heap. It is registered as a standard MBean named {@link #OBJECT_NAME} in the platform
+ * MBean server where jconsole or any other JMX client can reach it.
+ *
+ * A change only bumps the version number. Each worker compares the version with the one it
+ * last applied at every slice boundary and, if they differ, copies the current values into
+ * its own fields and its workload, so the hot loop never reads a shared field. A worker
+ * whose id is not below the active thread count parks at its next slice boundary until the
+ * count is raised or the run ends and the time it spends parked is not counted.
+ *
+ * A workload which takes its odds from a profile or a trace ignores those set here so once
+ * {@link #fixOdds} has been called an attempt to change them is rejected rather than
+ * reported as applied.
+ *
+ * Every change is printed when it is made, written to the result log if there is one and
+ * listed with the results so that histograms mixing timings from before and after a change
+ * can be recognised.
+ */
+public class ChurnControl implements ChurnControlMBean
+{
+    public final static String OBJECT_NAME = "org.jboss.churn:type=ChurnControl";
+
+    private volatile int computations;
+
+    private volatile int slices;
+
+    private volatile int yieldMSecs;
+
+    private volatile int blocks;
+
+    private volatile int promotionOdds;
+
+    private volatile int purgeOdds;
+
+    private volatile int megaLargeObjectOdds;
+
+    private volatile int largeObjectOdds;
+
+    private volatile int activeThreads;
+
+    /**
+     * the number of worker threads i.e. the maximum active thread count
+     */
+    private int threadCount;
+
+    /**
+     * the number of workers which are neither parked nor finished
+     */
+    private int workingThreads;
+
+    /**
+     * set once every worker is either parked or finished, after which parked workers
+     * finish too
+     */
+    private volatile boolean ended;
+
+    /**
+     * the option which fixes the promotion and size class odds or null if the workload takes
+     * them from this control
+     */
+    private String oddsFixedBy;
+
+    /**
+     * true if the purge odds are fixed too
+     */
+    private boolean purgeOddsFixed;
+
+    /**
+     * incremented after every change
+     */
+    private volatile int version;
+
+    /**
+     * a log to which changes are written or null
+     */
+    private ResultLog resultLog;
+
+    /**
+     * the time the run started from which change times are measured
+     */
+    private long startMillis;
+
+    /**
+     * a description of every change made
+     */
+    private List<String> changes;
+
+    public ChurnControl(int computations, int slices, int yieldMSecs, int blocks, int threadCount, ResultLog resultLog)
+    {
+        this.computations = computations;
+        this.slices = slices;
+        this.yieldMSecs = yieldMSecs;
+        this.blocks = blocks;
+        this.promotionOdds = TestRunner.PROMOTION_ODDS;
+        this.purgeOdds = TestRunner.DUMP_LONG_TERM_ODDS;
+        this.megaLargeObjectOdds = TestRunner.MEGA_LARGE_OBJECT_ODDS;
+        this.largeObjectOdds = TestRunner.LARGE_OBJECT_ODDS;
+        this.activeThreads = threadCount;
+        this.threadCount = threadCount;
+        this.workingThreads = threadCount;
+        this.ended = false;
+        this.oddsFixedBy = null;
+        this.purgeOddsFixed = false;
+        this.version = 0;
+        this.resultLog = resultLog;
+        this.startMillis = System.currentTimeMillis();
+        this.changes = new ArrayList<String>();
+    }
+
+    /**
+     * register this control with the platform MBean server
+     * @throws JMException if registration fails
+     */
+    public void register() throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * remove this control from the platform MBean server
+     */
+    public void unregister()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // not registered
+        }
+    }
+
+    /**
+     * note that the workload ignores the promotion and size class odds and possibly the purge
+     * odds so that attempts to change them are rejected
+     * @param option the option which fixes them
+     * @param includingPurge true if the purge odds are fixed as well
+     */
+    public synchronized void fixOdds(String option, boolean includingPurge)
+    {
+        this.oddsFixedBy = option;
+        this.purgeOddsFixed = includingPurge;
+    }
+
+    /**
+     * note the time at which the workers start so changes can be timed relative to it
+     * @param startMillis the start time
+     */
+    public void setStart(long startMillis)
+    {
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * @return the version number which changes whenever a parameter is changed
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public int getComputations()
+    {
+        return computations;
+    }
+
+    public synchronized void setComputations(int computations)
+    {
+        check("computations", computations, 1);
+        changed("computations", this.computations, computations);
+        this.computations = computations;
+        version++;
+    }
+
+    public int getSlices()
+    {
+        return slices;
+    }
+
+    public synchronized void setSlices(int slices)
+    {
+        check("slices", slices, 1);
+        changed("slices", this.slices, slices);
+        this.slices = slices;
+        version++;
+    }
+
+    public int getYieldMSecs()
+    {
+        return yieldMSecs;
+    }
+
+    public synchronized void setYieldMSecs(int yieldMSecs)
+    {
+        check("yieldMSecs", yieldMSecs, -1);
+        changed("yieldMSecs", this.yieldMSecs, yieldMSecs);
+        this.yieldMSecs = yieldMSecs;
+        version++;
+    }
+
+    public int getBlocks()
+    {
+        return blocks;
+    }
+
+    public synchronized void setBlocks(int blocks)
+    {
+        check("blocks", blocks, 1);
+        changed("blocks", this.blocks, blocks);
+        this.blocks = blocks;
+        version++;
+    }
+
+    public int getPromotionOdds()
+    {
+        return promotionOdds;
+    }
+
+    public synchronized void setPromotionOdds(int promotionOdds)
+    {
+        checkApplicable("promotionOdds", true);
+        check("promotionOdds", promotionOdds, 1);
+        changed("promotionOdds", this.promotionOdds, promotionOdds);
+        this.promotionOdds = promotionOdds;
+        version++;
+    }
+
+    public int getPurgeOdds()
+    {
+        return purgeOdds;
+    }
+
+    public synchronized void setPurgeOdds(int purgeOdds)
+    {
+        checkApplicable("purgeOdds", purgeOddsFixed);
+        check("purgeOdds", purgeOdds, 1);
+        changed("purgeOdds", this.purgeOdds, purgeOdds);
+        this.purgeOdds = purgeOdds;
+        version++;
+    }
+
+    public int getMegaLargeObjectOdds()
+    {
+        return megaLargeObjectOdds;
+    }
+
+    public synchronized void setMegaLargeObjectOdds(int megaLargeObjectOdds)
+    {
+        checkApplicable("megaLargeObjectOdds", true);
+        check("megaLargeObjectOdds", megaLargeObjectOdds, 1);
+        changed("megaLargeObjectOdds", this.megaLargeObjectOdds, megaLargeObjectOdds);
+        this.megaLargeObjectOdds = megaLargeObjectOdds;
+        version++;
+    }
+
+    public int getLargeObjectOdds()
+    {
+        return largeObjectOdds;
+    }
+
+    public synchronized void setLargeObjectOdds(int largeObjectOdds)
+    {
+        checkApplicable("largeObjectOdds", true);
+        // a random value below 4 picks a large or medium object so the odds must exceed that
+        check("largeObjectOdds", largeObjectOdds, 4);
+        changed("largeObjectOdds", this.largeObjectOdds, largeObjectOdds);
+        this.largeObjectOdds = largeObjectOdds;
+        version++;
+    }
+
+    public int getActiveThreads()
+    {
+        return activeThreads;
+    }
+
+    public synchronized void setActiveThreads(int activeThreads)
+    {
+        if (activeThreads > threadCount) {
+            throw new IllegalArgumentException("activeThreads must be at most " + threadCount);
+        }
+        check("activeThreads", activeThreads, 1);
+        changed("activeThreads", this.activeThreads, activeThreads);
+        this.activeThreads = activeThreads;
+        version++;
+    }
+
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    /**
+     * called by a worker when it parks because it is not one of the active threads
+     */
+    public synchronized void threadParked()
+    {
+        if (--workingThreads == 0) {
+            ended = true;
+        }
+    }
+
+    /**
+     * called by a parked worker when it has been reactivated
+     * @return true if the worker should carry on or false if the run ended while it was
+     * parked in which case it should finish
+     */
+    public synchronized boolean threadUnparked()
+    {
+        if (ended) {
+            return false;
+        }
+        workingThreads++;
+        return true;
+    }
+
+    /**
+     * called by a worker which was not parked when it finishes
+     */
+    public synchronized void threadFinished()
+    {
+        if (--workingThreads == 0) {
+            ended = true;
+        }
+    }
+
+    /**
+     * @return true if every worker is either parked or finished. in a timed run parked
+     * workers see the time run out but an iterated or replayed run only ends for them when
+     * the others have all finished.
+     */
+    public boolean isEnded()
+    {
+        return ended;
+    }
+
+    public synchronized int getChangeCount()
+    {
+        return changes.size();
+    }
+
+    private void check(String name, int value, int min)
+    {
+        if (value < min) {
+            throw new IllegalArgumentException(name + " must be at least " + min);
+        }
+    }
+
+    private void checkApplicable(String name, boolean fixed)
+    {
+        if (fixed && oddsFixedBy != null) {
+            throw new UnsupportedOperationException(name + " is not applicable with " + oddsFixedBy);
+        }
+    }
+
+    /**
+     * record a change
+     */
+    private void changed(String name, int oldValue, int newValue)
+    {
+        String change = String.format("%.3f secs %s %d -> %d",
+                (System.currentTimeMillis() - startMillis) / 1000.0, name, oldValue, newValue);
+        changes.add(change);
+        System.out.println("control : " + change);
+        if (resultLog != null) {
+            resultLog.log("control " + change);
+        }
+    }
+
+    /**
+     * print the changes made during the run, if any
+     * @param str the stream to print to
+     */
+    public synchronized void printTo(PrintStream str)
+    {
+        if (changes.isEmpty()) {
+            return;
+        }
+        str.println("Runtime changes (" + changes.size() + ")");
+        for (String change : changes) {
+            str.println("  " + change);
+        }
+    }
+}
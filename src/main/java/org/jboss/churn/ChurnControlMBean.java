@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+/**
+ * The management interface of {@link ChurnControl} through which the workload parameters
+ * can be inspected and changed over JMX while a run is in progress.
+ */
+public interface ChurnControlMBean
+{
+    int getComputations();
+
+    void setComputations(int computations);
+
+    int getSlices();
+
+    void setSlices(int slices);
+
+    int getYieldMSecs();
+
+    void setYieldMSecs(int yieldMSecs);
+
+    int getBlocks();
+
+    void setBlocks(int blocks);
+
+    int getPromotionOdds();
+
+    void setPromotionOdds(int promotionOdds);
+
+    int getPurgeOdds();
+
+    void setPurgeOdds(int purgeOdds);
+
+    int getMegaLargeObjectOdds();
+
+    void setMegaLargeObjectOdds(int megaLargeObjectOdds);
+
+    int getLargeObjectOdds();
+
+    void setLargeObjectOdds(int largeObjectOdds);
+
+    int getActiveThreads();
+
+    void setActiveThreads(int activeThreads);
+
+    int getThreadCount();
+
+    int getChangeCount();
+}
@@ -0,0 +1,380 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * A ClassChurner is a thread which defines new classes at a fixed rate and drops them
+ * again, stressing metaspace and class unloading the way generated proxies, lambdas and
+ * redeployments do in an application server. Each class is generated as bytecode which
+ * implements IntSupplier with a method returning a constant unique to the class. It is
+ * defined either
+ * <ul>
+ *     <li>loader -- in a throwaway ClassLoader which defines CLASSES_PER_LOADER classes, so
+ *     a loader and its classes can only be unloaded together</li>
+ *     <li>hidden -- as a hidden class using MethodHandles.Lookup.defineHiddenClass, which
+ *     can be unloaded as soon as it is unreachable. this needs JDK 15 or later and is called
+ *     reflectively so churn still builds for older JDKs.</li>
+ * </ul>
+ * An instance of each class is created and called and then held in a ring of LIVE_CLASSES
+ * instances so there is always a live set of classes, the oldest being dropped as new ones
+ * are defined. The time taken to define, instantiate and call each class is recorded in a
+ * histogram and the metaspace pool is sampled as classes are defined.
+ */
+public class ClassChurner extends Thread
+{
+    public final static int MODE_LOADER = 0;
+    public final static int MODE_HIDDEN = 1;
+
+    public final static String[] MODE_NAMES = { "loader", "hidden" };
+
+    /**
+     * the number of classes defined by each throwaway loader
+     */
+    private final static int CLASSES_PER_LOADER = 16;
+
+    /**
+     * the number of class instances kept live
+     */
+    private final static int LIVE_CLASSES = 1024;
+
+    /**
+     * how often in classes defined the metaspace pool is sampled
+     */
+    private final static int SAMPLE_INTERVAL = 64;
+
+    private int mode;
+
+    /**
+     * the interval between class definitions in nanoseconds
+     */
+    private long intervalNanos;
+
+    /**
+     * the live class instances
+     */
+    private IntSupplier[] live;
+
+    private ChurnClassLoader loader;
+
+    private Object lookup;
+
+    private Method defineHiddenClass;
+
+    private Object noOptions;
+
+    private MemoryPoolMXBean metaspace;
+
+    private ClassLoadingMXBean classLoading;
+
+    private long startUnloaded;
+
+    private long maxMetaspaceUsed;
+
+    private long definedCount;
+
+    /**
+     * a histogram of the time taken to define, instantiate and call each class in usecs
+     */
+    private LogHistogram defineHistogram;
+
+    /**
+     * accumulates the values returned by the classes so that the calls cannot be eliminated
+     */
+    private long sink;
+
+    /**
+     * set when the churner should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * create a churner
+     * @param mode MODE_LOADER or MODE_HIDDEN
+     * @param classesPerSec the number of classes to define per second
+     * @throws UnsupportedOperationException if hidden classes are requested but unavailable
+     */
+    public ClassChurner(int mode, int classesPerSec)
+    {
+        super("churn class churner");
+        setDaemon(true);
+        this.mode = mode;
+        this.intervalNanos = 1000000000L / classesPerSec;
+        this.live = new IntSupplier[LIVE_CLASSES];
+        if (mode == MODE_HIDDEN) {
+            try {
+                Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+                noOptions = Array.newInstance(optionClass, 0);
+                defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+                        noOptions.getClass());
+                lookup = MethodHandles.lookup();
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("hidden classes are not supported by this JVM");
+            }
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getName().equals("Metaspace")) {
+                metaspace = pool;
+            }
+        }
+        this.classLoading = ManagementFactory.getClassLoadingMXBean();
+        this.startUnloaded = classLoading.getUnloadedClassCount();
+        this.maxMetaspaceUsed = 0;
+        this.definedCount = 0;
+        this.defineHistogram = new LogHistogram(24, true, 10);
+        this.stopped = false;
+    }
+
+    public void run()
+    {
+        long deadline = System.nanoTime();
+        while (!stopped) {
+            long start = System.nanoTime();
+            try {
+                Class<?> generated = define((int)definedCount);
+                IntSupplier instance = (IntSupplier)generated.getDeclaredConstructor().newInstance();
+                sink += instance.getAsInt();
+                live[(int)(definedCount % LIVE_CLASSES)] = instance;
+            } catch (Throwable t) {
+                System.out.println("class churner : failed to define class : " + t);
+                return;
+            }
+            defineHistogram.count((System.nanoTime() - start) / 1000);
+            definedCount++;
+            if (definedCount % SAMPLE_INTERVAL == 0) {
+                sampleMetaspace();
+            }
+            deadline += intervalNanos;
+            long now = System.nanoTime();
+            if (deadline > now) {
+                LockSupport.parkNanos(deadline - now);
+            } else if (now - deadline > 1000000000L) {
+                // don't try to catch up after falling more than a second behind
+                deadline = now;
+            }
+        }
+    }
+
+    /**
+     * generate and define a class
+     * @param index the number of classes defined so far
+     * @return the new class
+     */
+    private Class<?> define(int index) throws ReflectiveOperationException, IOException
+    {
+        if (mode == MODE_HIDDEN) {
+            byte[] bytes = generate("org/jboss/churn/ChurnHidden", index);
+            Object hidden = defineHiddenClass.invoke(lookup, bytes, true, noOptions);
+            return ((MethodHandles.Lookup)hidden).lookupClass();
+        }
+        int slot = index % CLASSES_PER_LOADER;
+        if (slot == 0) {
+            loader = new ChurnClassLoader(ClassChurner.class.getClassLoader());
+        }
+        String name = "org.jboss.churn.generated.Generated" + slot;
+        return loader.define(name, generate(name.replace('.', '/'), index));
+    }
+
+    private void sampleMetaspace()
+    {
+        if (metaspace != null) {
+            long used = metaspace.getUsage().getUsed();
+            if (used > maxMetaspaceUsed) {
+                maxMetaspaceUsed = used;
+            }
+        }
+    }
+
+    /**
+     * generate the bytecode for a public class with a no-args constructor which implements
+     * IntSupplier by returning a constant
+     * @param name the internal name of the class
+     * @param value the constant returned by getAsInt
+     * @return the class file bytes
+     */
+    static byte[] generate(String name, int value) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);
+        // class file version 52 i.e. JDK 8 so that no stack map frames are needed
+        out.writeShort(52);
+        // constant pool
+        out.writeShort(15);
+        utf8(out, name);                                         // 1
+        out.writeByte(7); out.writeShort(1);                     // 2 this class
+        utf8(out, "java/lang/Object");                           // 3
+        out.writeByte(7); out.writeShort(3);                     // 4 super class
+        utf8(out, "java/util/function/IntSupplier");             // 5
+        out.writeByte(7); out.writeShort(5);                     // 6 interface
+        utf8(out, "<init>");                                     // 7
+        utf8(out, "()V");                                        // 8
+        out.writeByte(12); out.writeShort(7); out.writeShort(8); // 9 name and type
+        out.writeByte(10); out.writeShort(4); out.writeShort(9); // 10 Object.<init>
+        utf8(out, "getAsInt");                                   // 11
+        utf8(out, "()I");                                        // 12
+        utf8(out, "Code");                                       // 13
+        out.writeByte(3); out.writeInt(value);                   // 14 the constant
+        // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(0x21);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(1);
+        out.writeShort(6);
+        // no fields
+        out.writeShort(0);
+        out.writeShort(2);
+        // public <init>() { super(); }
+        out.writeShort(0x1);
+        out.writeShort(7);
+        out.writeShort(8);
+        out.writeShort(1);
+        out.writeShort(13);
+        out.writeInt(17);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(5);
+        out.writeByte(0x2a);                                     // aload_0
+        out.writeByte(0xb7); out.writeShort(10);                 // invokespecial #10
+        out.writeByte(0xb1);                                     // return
+        out.writeShort(0);
+        out.writeShort(0);
+        // public int getAsInt() { return value; }
+        out.writeShort(0x1);
+        out.writeShort(11);
+        out.writeShort(12);
+        out.writeShort(1);
+        out.writeShort(13);
+        out.writeInt(15);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(3);
+        out.writeByte(0x12); out.writeByte(14);                  // ldc #14
+        out.writeByte(0xac);                                     // ireturn
+        out.writeShort(0);
+        out.writeShort(0);
+        // no class attributes
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException
+    {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    /**
+     * ask the churner to stop and wait for it to do so
+     */
+    public void finish()
+    {
+        stopped = true;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    public LogHistogram getHistogram()
+    {
+        return defineHistogram;
+    }
+
+    public long getDefinedCount()
+    {
+        return definedCount;
+    }
+
+    /**
+     * @return the number of classes unloaded by the JVM since the churner was created, which
+     * includes any unloaded for other reasons
+     */
+    public long getUnloadedCount()
+    {
+        return classLoading.getUnloadedClassCount() - startUnloaded;
+    }
+
+    /**
+     * @return the highest metaspace usage seen in bytes or -1 if it is unknown
+     */
+    public long getMaxMetaspaceUsed()
+    {
+        sampleMetaspace();
+        return (metaspace != null ? maxMetaspaceUsed : -1);
+    }
+
+    /**
+     * @return the metaspace committed in bytes or -1 if it is unknown
+     */
+    public long getMetaspaceCommitted()
+    {
+        return (metaspace != null ? metaspace.getUsage().getCommitted() : -1);
+    }
+
+    /**
+     * @return the metaspace used in bytes or -1 if it is unknown
+     */
+    public long getMetaspaceUsed()
+    {
+        return (metaspace != null ? metaspace.getUsage().getUsed() : -1);
+    }
+
+    public String getModeName()
+    {
+        return MODE_NAMES[mode];
+    }
+
+    /**
+     * a loader which defines generated classes and is dropped with them
+     */
+    private static class ChurnClassLoader extends ClassLoader
+    {
+        ChurnClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compare is a main class which compares a candidate set of churn results against a
+ * baseline set. Results are read from the encoded {@link RunResult} lines found in
+ * TestRunner output logs. Results with the same label (normally one label per collector)
+ * are merged before comparing so that repeat runs are treated as a single larger sample.
+ * A run's result appears both in its output log and in its result log so results whose
+ * encoded form has already been read are skipped rather than counted twice.
+ *
+ * For each label the comparison lists task time percentiles, iteration and allocation
+ * rates for both sets along with the relative change. A change which makes the candidate
+ * worse by more than the significance threshold is flagged as a regression, in which case
+ * the program exits with status 1.
+ */
+public class Compare
+{
+    /**
+     * relative change in percent above which a worse candidate value counts as a regression.
+     * can be set on the command line using -threshold
+     */
+    private static double threshold = 10;
+
+    /**
+     * absolute change in msecs a task time percentile must also exceed to count as a regression.
+     * this stops millisecond rounding of small values being reported as a large relative change.
+     * can be set on the command line using -minDelta
+     */
+    private static long minDelta = 1;
+
+    private static List<File> baselineFiles = new ArrayList<File>();
+
+    private static List<File> candidateFiles = new ArrayList<File>();
+
+    /**
+     * main method allowing two result sets to be compared. command line options are as follows:
+     * <ul>
+     *     <li>-baseline F -- output log or directory of output logs holding baseline results. may be repeated</li>
+     *     <li>-candidate F -- output log or directory of output logs holding candidate results. may be repeated</li>
+     *     <li>-threshold P -- percentage change above which a worse candidate is a regression (defaults to 10)</li>
+     *     <li>-minDelta M -- msecs a task time percentile must also worsen by to be a regression (defaults to 1)</li>
+     * </ul>
+     *
+     * exits with status 0 if no regression was found, 1 if a regression was found or a baseline
+     * label has no candidate results and 2 if the results could not be read.
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        processArgs(args);
+
+        Map<String, RunResult> baseline = null;
+        Map<String, RunResult> candidate = null;
+        try {
+            baseline = readResults(baselineFiles);
+            candidate = readResults(candidateFiles);
+        } catch (IOException e) {
+            System.out.println("failed to read results : " + e.getMessage());
+            System.exit(2);
+        }
+        if (baseline.isEmpty()) {
+            System.out.println("no baseline results found");
+            System.exit(2);
+        }
+
+        int regressions = 0;
+        for (Map.Entry<String, RunResult> entry : baseline.entrySet()) {
+            String label = entry.getKey();
+            RunResult base = entry.getValue();
+            RunResult next = candidate.get(label);
+            System.out.println();
+            if (next == null) {
+                System.out.println(label + " : no candidate results");
+                regressions++;
+                continue;
+            }
+            regressions += compare(base, next);
+        }
+        for (String label : candidate.keySet()) {
+            if (!baseline.containsKey(label)) {
+                System.out.println();
+                System.out.println(label + " : no baseline results");
+            }
+        }
+        System.out.println();
+        if (regressions > 0) {
+            System.out.println(regressions + " regression(s) found at threshold " + threshold + "%");
+            System.exit(1);
+        }
+        System.out.println("no regressions found at threshold " + threshold + "%");
+    }
+
+    /**
+     * print a comparison of two results with the same label
+     * @param base the baseline result
+     * @param next the candidate result
+     * @return the number of regressions found
+     */
+    static int compare(RunResult base, RunResult next)
+    {
+        System.out.println(base.getLabel() + " : baseline " + base.getHistogram().getSampleCount() + " tasks in " + base.getElapsedMillis() / 1000 +
+                " secs, candidate " + next.getHistogram().getSampleCount() + " tasks in " + next.getElapsedMillis() / 1000 + " secs");
+        System.out.println(String.format("  %-14s %12s %12s %9s", "metric", "baseline", "candidate", "delta"));
+        int regressions = 0;
+        for (double percentile : RunResult.PERCENTILES) {
+            long baseValue = base.getHistogram().getPercentile(percentile);
+            long nextValue = next.getHistogram().getPercentile(percentile);
+            boolean worse = (nextValue - baseValue > minDelta);
+            if (printRow(RunResult.percentileName(percentile) + "(ms)", baseValue, nextValue, worse)) {
+                regressions++;
+            }
+        }
+        // for rates a lower candidate value is worse
+        if (printRow("iterations/s", base.getIterationRate(), next.getIterationRate(), next.getIterationRate() < base.getIterationRate())) {
+            regressions++;
+        }
+        if (printRow("alloc(MB/s)", base.getAllocationRate(), next.getAllocationRate(), next.getAllocationRate() < base.getAllocationRate())) {
+            regressions++;
+        }
+        // results from older versions of churn do not include item counts or GC times
+        if (base.getItemsProcessed() > 0 && next.getItemsProcessed() > 0) {
+            if (printRow("items/s", base.getItemRate(), next.getItemRate(), next.getItemRate() < base.getItemRate())) {
+                regressions++;
+            }
+            if (printRow("GC(%)", base.getGCOverhead(), next.getGCOverhead(), next.getGCOverhead() > base.getGCOverhead())) {
+                regressions++;
+            }
+        }
+        // allocation totals and elapsed time depend on the run length so they are informative only
+        printRow("alloc(MB)", base.getAllocatedBytes() / (1024 * 1024), next.getAllocatedBytes() / (1024 * 1024), false);
+        printRow("elapsed(s)", base.getElapsedMillis() / 1000.0, next.getElapsedMillis() / 1000.0, false);
+        return regressions;
+    }
+
+    /**
+     * print one row of a comparison table
+     * @param metric the metric name
+     * @param baseValue the baseline value
+     * @param nextValue the candidate value
+     * @param worse true if the candidate value is worse than the baseline value
+     * @return true if the row is a regression
+     */
+    private static boolean printRow(String metric, double baseValue, double nextValue, boolean worse)
+    {
+        double delta = delta(baseValue, nextValue);
+        boolean regression = worse && Math.abs(delta) > threshold;
+        System.out.println(String.format("  %-14s %12.2f %12.2f %8.1f%%%s", metric, baseValue, nextValue, delta,
+                (regression ? "  REGRESSION" : "")));
+        return regression;
+    }
+
+    /**
+     * @return the relative change from baseValue to nextValue in percent
+     */
+    static double delta(double baseValue, double nextValue)
+    {
+        if (baseValue == 0) {
+            return (nextValue == 0 ? 0 : 100);
+        }
+        return ((nextValue - baseValue) * 100) / baseValue;
+    }
+
+    /**
+     * read all results from a list of output logs or directories, merging those with the same
+     * label and skipping any identical to one already read
+     * @param files the files or directories to read
+     * @return the merged results indexed by label
+     * @throws IOException if a file cannot be read
+     */
+    static Map<String, RunResult> readResults(List<File> files) throws IOException
+    {
+        Map<String, RunResult> results = new TreeMap<String, RunResult>();
+        Set<String> seen = new HashSet<String>();
+        for (File file : files) {
+            File[] entries;
+            if (file.isDirectory()) {
+                entries = file.listFiles();
+                Arrays.sort(entries);
+            } else {
+                entries = new File[] { file };
+            }
+            for (File entry : entries) {
+                if (!entry.isFile()) {
+                    continue;
+                }
+                for (RunResult result : RunResult.readAll(entry)) {
+                    // encode before merging since a merge updates the result it merges into
+                    if (!seen.add(result.encode())) {
+                        continue;
+                    }
+                    RunResult existing = results.get(result.getLabel());
+                    if (existing == null) {
+                        results.put(result.getLabel(), result);
+                    } else {
+                        existing.accumulate(result);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private static void processArgs(String[] args)
+    {
+        for (int i = 0; i < args.length; i++) {
+            try {
+                if (args[i].equals("-baseline") && i + 1 < args.length) {
+                    i++;
+                    baselineFiles.add(new File(args[i]));
+                } else if (args[i].equals("-candidate") && i + 1 < args.length) {
+                    i++;
+                    candidateFiles.add(new File(args[i]));
+                } else if (args[i].equals("-threshold") && i + 1 < args.length) {
+                    i++;
+                    threshold = Double.valueOf(args[i]);
+                    if (threshold < 0) {
+                        usage("invalid threshold " + args[i]);
+                    }
+                } else if (args[i].equals("-minDelta") && i + 1 < args.length) {
+                    i++;
+                    minDelta = Long.valueOf(args[i]);
+                    if (minDelta < 0) {
+                        usage("invalid minimum delta " + args[i]);
+                    }
+                } else {
+                    usage("invalid argument " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                usage("invalid number format " + args[i]);
+            }
+        }
+        if (baselineFiles.isEmpty() || candidateFiles.isEmpty()) {
+            usage("both baseline and candidate results are required");
+        }
+    }
+
+    private static void usage(String message)
+    {
+        System.out.println(message);
+        System.out.println("usage Compare -baseline F [-baseline F ...] -candidate F [-candidate F ...] [-threshold P] [-minDelta M]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.io.PrintStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * A Footprint measures the exact size of the live set held in the work maps by walking
+ * every object reachable from them and summing the sizes reported by
+ * Instrumentation.getObjectSize, which needs the {@link FootprintAgent} to be loaded. The
+ * sizes are totalled per class, so the report gives the shallow size of each WorkItem, of
+ * its byte[][] and byte[] blocks and of the map's keys, nodes and tables, as well as the
+ * retained size of all of them together. Running the same configuration with and without
+ * compressed oops shows what they save.
+ *
+ * Each object is counted once however many paths reach it. The walk does not enter
+ * classes, class loaders or threads, which a map can only reach through a lock owner.
+ * Reading the fields of JDK classes needs their packages to be opened, which the agent's
+ * Instrumentation can do. The set of visited objects needs memory of its own, a few tens
+ * of bytes per object walked, so a large live set needs some heap headroom.
+ */
+public class Footprint
+{
+    /**
+     * the number of classes listed in the report
+     */
+    private final static int TOP_CLASSES = 12;
+
+    private Instrumentation instrumentation;
+
+    /**
+     * the reference fields of each class walked, including inherited fields
+     */
+    private Map<Class<?>, Field[]> fieldCache;
+
+    /**
+     * counts and total bytes per class
+     */
+    private Map<Class<?>, long[]> classTotals;
+
+    private long objectCount;
+
+    private long byteCount;
+
+    /**
+     * fields which could not be read, named once each
+     */
+    private Set<String> unreadable;
+
+    public Footprint(Instrumentation instrumentation)
+    {
+        this.instrumentation = instrumentation;
+        this.fieldCache = new HashMap<Class<?>, Field[]>();
+        this.classTotals = new HashMap<Class<?>, long[]>();
+        this.objectCount = 0;
+        this.byteCount = 0;
+        this.unreadable = new HashSet<String>();
+        openJavaBase();
+    }
+
+    /**
+     * open every package in java.base to this class's module so that the fields of the
+     * maps, strings and locks can be read. the module API is called reflectively so churn
+     * still builds for JDK 8, which has no modules and so needs nothing opening.
+     */
+    @SuppressWarnings("unchecked")
+    private void openJavaBase()
+    {
+        Method getModule;
+        try {
+            getModule = Class.class.getMethod("getModule");
+        } catch (NoSuchMethodException e) {
+            return;
+        }
+        try {
+            Class<?> moduleClass = getModule.getReturnType();
+            Object base = getModule.invoke(Object.class);
+            Set<Object> us = Collections.singleton(getModule.invoke(Footprint.class));
+            Set<String> packages = (Set<String>)moduleClass.getMethod("getPackages").invoke(base);
+            Map<String, Set<Object>> opens = new HashMap<String, Set<Object>>();
+            for (String pkg : packages) {
+                opens.put(pkg, us);
+            }
+            Method redefineModule = Instrumentation.class.getMethod("redefineModule", moduleClass, Set.class, Map.class,
+                    Map.class, Set.class, Map.class);
+            redefineModule.invoke(instrumentation, base, Collections.emptySet(), Collections.emptyMap(), opens,
+                    Collections.emptySet(), Collections.emptyMap());
+        } catch (ReflectiveOperationException e) {
+            System.out.println("failed to open java.base for the footprint walk : " + e);
+        }
+    }
+
+    /**
+     * measure everything reachable from a set of roots, counting shared objects once
+     * @param roots the roots of the walk
+     */
+    public void measure(List<Object> roots)
+    {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        ArrayDeque<Object> pending = new ArrayDeque<Object>();
+        for (Object root : roots) {
+            if (root != null && visited.add(root)) {
+                pending.push(root);
+            }
+        }
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            Class<?> type = object.getClass();
+            long size = instrumentation.getObjectSize(object);
+            long[] totals = classTotals.get(type);
+            if (totals == null) {
+                totals = new long[2];
+                classTotals.put(type, totals);
+            }
+            totals[0]++;
+            totals[1] += size;
+            objectCount++;
+            byteCount += size;
+            if (type.isArray()) {
+                if (!type.getComponentType().isPrimitive()) {
+                    int length = Array.getLength(object);
+                    for (int i = 0; i < length; i++) {
+                        push(Array.get(object, i), visited, pending);
+                    }
+                }
+            } else {
+                for (Field field : fields(type)) {
+                    try {
+                        push(field.get(object), visited, pending);
+                    } catch (IllegalAccessException e) {
+                        unreadable.add(field.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    private void push(Object object, Set<Object> visited, ArrayDeque<Object> pending)
+    {
+        if (object == null || object instanceof Class || object instanceof ClassLoader || object instanceof Thread) {
+            return;
+        }
+        if (visited.add(object)) {
+            pending.push(object);
+        }
+    }
+
+    /**
+     * @return the non-static reference fields of a class and its superclasses
+     */
+    private Field[] fields(Class<?> type)
+    {
+        Field[] fields = fieldCache.get(type);
+        if (fields != null) {
+            return fields;
+        }
+        List<Field> list = new ArrayList<Field>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    list.add(field);
+                } catch (RuntimeException e) {
+                    unreadable.add(field.toString());
+                }
+            }
+        }
+        fields = list.toArray(new Field[list.size()]);
+        fieldCache.put(type, fields);
+        return fields;
+    }
+
+    public long getObjectCount()
+    {
+        return objectCount;
+    }
+
+    public long getByteCount()
+    {
+        return byteCount;
+    }
+
+    /**
+     * @return the number of objects and bytes of a class, both 0 if none were found
+     */
+    public long[] getTotals(Class<?> type)
+    {
+        long[] totals = classTotals.get(type);
+        return (totals != null ? totals : new long[2]);
+    }
+
+    /**
+     * print the footprint
+     * @param str the stream to print to
+     * @param itemCount the number of map entries, used to give a per entry figure
+     */
+    public void printTo(PrintStream str, long itemCount)
+    {
+        str.println("Footprint (" + vmOption("UseCompressedOops", "compressed oops") + ", " +
+                vmOption("UseCompressedClassPointers", "compressed class pointers") + ", object alignment " +
+                vmValue("ObjectAlignmentInBytes") + ")");
+        str.println(String.format("  live set %d objects %.1f MBs, %d bytes per map entry for %d entries",
+                objectCount, byteCount / (1024.0 * 1024.0), (itemCount > 0 ? byteCount / itemCount : 0), itemCount));
+        List<Map.Entry<Class<?>, long[]>> entries = new ArrayList<Map.Entry<Class<?>, long[]>>(classTotals.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Class<?>, long[]>>() {
+            @Override
+            public int compare(Map.Entry<Class<?>, long[]> entry1, Map.Entry<Class<?>, long[]> entry2) {
+                return Long.compare(entry2.getValue()[1], entry1.getValue()[1]);
+            }
+        });
+        str.println("      objects      MBs  avg bytes  class");
+        for (int i = 0; i < entries.size() && i < TOP_CLASSES; i++) {
+            long[] totals = entries.get(i).getValue();
+            str.println(String.format("  %11d %8.1f %10d  %s", totals[0], totals[1] / (1024.0 * 1024.0),
+                    totals[1] / totals[0], entries.get(i).getKey().getTypeName()));
+        }
+        if (!unreadable.isEmpty()) {
+            str.println("  " + unreadable.size() + " fields could not be read so the figures may be low");
+        }
+    }
+
+    private static String vmOption(String name, String description)
+    {
+        String value = vmValue(name);
+        return description + (value.equals("true") ? " on" : value.equals("false") ? " off" : " unknown");
+    }
+
+    private static String vmValue(String name)
+    {
+        try {
+            HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return hotspot.getVMOption(name).getValue();
+        } catch (RuntimeException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.lang.instrument.Instrumentation;
+
+/**
+ * The FootprintAgent is a java agent whose only job is to hand churn the Instrumentation
+ * instance, which {@link Footprint} uses to measure exact object sizes. The churn jar names
+ * it as its Premain-Class, Agent-Class and Launcher-Agent-Class so it is loaded when churn
+ * is run with -javaagent:churn.jar or with java -jar churn.jar.
+ */
+public class FootprintAgent
+{
+    private static volatile Instrumentation instrumentation = null;
+
+    public static void premain(String args, Instrumentation inst)
+    {
+        instrumentation = inst;
+    }
+
+    public static void agentmain(String args, Instrumentation inst)
+    {
+        instrumentation = inst;
+    }
+
+    /**
+     * @return the instrumentation instance or null if the agent has not been loaded
+     */
+    public static Instrumentation getInstrumentation()
+    {
+        return instrumentation;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+/**
+ * A JitterProbe is a thread which repeatedly waits for a short fixed period, either by
+ * sleeping or by spinning, and records in a histogram how much longer than expected each
+ * wait took. It never allocates so the GC only ever delays it by stopping it at a
+ * safepoint. Comparing its histogram with the worker histograms shows how much of the
+ * tail of the worker timings is down to the OS scheduler or to safepoint pauses rather
+ * than to the work the collector makes the workers do (barriers, allocation stalls etc).
+ * The idea is the same as the one behind jHiccup.
+ */
+public class JitterProbe extends Thread
+{
+    /**
+     * wait by sleeping
+     */
+    public final static int MODE_SLEEP = 0;
+
+    /**
+     * wait by spinning on the clock
+     */
+    public final static int MODE_SPIN = 1;
+
+    /**
+     * the length of each wait in nanoseconds
+     */
+    final private static long WAIT_NANOS = 1000 * 1000;
+
+    private int mode;
+
+    /**
+     * a histogram of the excess time of each wait in msecs
+     */
+    private LogHistogram jitterHistogram;
+
+    /**
+     * the largest excess seen in nanoseconds
+     */
+    private long maxHiccupNanos;
+
+    /**
+     * set when the probe should stop
+     */
+    private volatile boolean stopped;
+
+    public JitterProbe(int mode)
+    {
+        super("churn jitter probe");
+        setDaemon(true);
+        this.mode = mode;
+        this.jitterHistogram = new LogHistogram(true, 10);
+        this.maxHiccupNanos = 0;
+        this.stopped = false;
+    }
+
+    public void run()
+    {
+        while (!stopped) {
+            long start = System.nanoTime();
+            long deadline = start + WAIT_NANOS;
+            if (mode == MODE_SLEEP) {
+                try {
+                    Thread.sleep(WAIT_NANOS / 1000000);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            } else {
+                while (System.nanoTime() < deadline) {
+                    // spin
+                }
+            }
+            long hiccup = System.nanoTime() - deadline;
+            if (hiccup < 0) {
+                hiccup = 0;
+            }
+            if (hiccup > maxHiccupNanos) {
+                maxHiccupNanos = hiccup;
+            }
+            jitterHistogram.count(hiccup / 1000000);
+        }
+    }
+
+    /**
+     * ask the probe to stop and wait for it to do so
+     */
+    public void finish()
+    {
+        stopped = true;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    public LogHistogram getHistogram()
+    {
+        return jitterHistogram;
+    }
+
+    public long getMaxHiccupNanos()
+    {
+        return maxHiccupNanos;
+    }
+
+    public String getModeName()
+    {
+        return (mode == MODE_SLEEP ? "sleep" : "spin");
+    }
+}
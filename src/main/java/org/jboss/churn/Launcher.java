@@ -0,0 +1,266 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Launcher is a main class which runs TestRunner in several child JVMs, each
+ * configured with its own JVM options (typically a different GC), and prints a single
+ * report comparing their results. Children may be run one after another or all at the
+ * same time in order to simulate co-located services competing for cores and memory
+ * bandwidth.
+ *
+ * Child output is echoed prefixed with the child's label. Each child prints its result
+ * as an encoded {@link RunResult} line which the launcher picks out of the output stream.
+ */
+public class Launcher
+{
+    /**
+     * path to the java executable used to start children. can be set on the command line
+     * using -java
+     */
+    private static String javaPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+    /**
+     * true if children should all be started at the same time. can be set on the command
+     * line using -concurrent
+     */
+    private static boolean concurrent = false;
+
+    /**
+     * the children to run. added on the command line using -jvm
+     */
+    private static List<Child> children = new ArrayList<Child>();
+
+    /**
+     * arguments passed through to TestRunner in every child. supplied on the command line
+     * after --
+     */
+    private static List<String> churnArgs = new ArrayList<String>();
+
+    /**
+     * main method allowing a set of child runs to be launched. command line options are as follows:
+     * <ul>
+     *     <li>-java J -- java executable used to run children (defaults to the one running the launcher)</li>
+     *     <li>-concurrent -- run all children at the same time rather than one after another</li>
+     *     <li>-jvm L O -- add a child labelled L run with the space separated JVM options O. may be repeated</li>
+     *     <li>-- A ... -- pass all remaining arguments A to TestRunner in every child</li>
+     * </ul>
+     *
+     * e.g. Launcher -concurrent -jvm g1 "-Xmx4g -XX:+UseG1GC" -jvm par "-Xmx4g -XX:+UseParallelGC" -- -duration 600
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        processArgs(args);
+
+        if (concurrent) {
+            for (Child child : children) {
+                child.start();
+            }
+        }
+        for (Child child : children) {
+            if (!concurrent) {
+                child.start();
+            }
+            child.waitFor();
+        }
+
+        System.out.println();
+        System.out.println("Launcher Results");
+        RunResult.printSummaryHeader(System.out);
+        RunResult merged = null;
+        int failures = 0;
+        for (Child child : children) {
+            RunResult result = child.getResult();
+            if (child.getExitCode() != 0 || result == null) {
+                System.out.println(String.format("%-20s failed with exit code %d%s", child.getLabel(), child.getExitCode(),
+                        (result == null ? " and no result" : "")));
+                failures++;
+                continue;
+            }
+            result.printSummary(System.out);
+            // children run at the same time are aggregated over the wall time while children
+            // run one after another are summed as a single longer run
+            if (merged == null) {
+                merged = new RunResult((concurrent ? "aggregate" : "merged"), result.getThreadCount(), 0, 0, 0, 0, 0,
+                        new LogHistogram(true, 10));
+            }
+            if (concurrent) {
+                merged.accumulateConcurrent(result);
+            } else {
+                merged.accumulate(result);
+            }
+        }
+        if (merged != null) {
+            merged.printSummary(System.out);
+            if (concurrent) {
+                System.out.println("aggregate rates are over the wall time and GC overhead is summed across children");
+            }
+            System.out.println("Merged Histogram");
+            merged.getHistogram().printTo(System.out);
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void processArgs(String[] args)
+    {
+        int i;
+        for (i = 0; i < args.length; i++) {
+            if (args[i].equals("-java") && i + 1 < args.length) {
+                i++;
+                javaPath = args[i];
+            } else if (args[i].equals("-concurrent")) {
+                concurrent = true;
+            } else if (args[i].equals("-jvm") && i + 2 < args.length) {
+                String label = args[i + 1];
+                String options = args[i + 2].trim();
+                if (label.length() == 0) {
+                    usage("invalid label " + label);
+                }
+                for (Child child : children) {
+                    if (child.getLabel().equals(label)) {
+                        usage("duplicate label " + label);
+                    }
+                }
+                children.add(new Child(label, (options.length() == 0 ? new String[0] : options.split("\\s+"))));
+                i += 2;
+            } else if (args[i].equals("--")) {
+                i++;
+                break;
+            } else {
+                usage("invalid argument " + args[i]);
+            }
+        }
+        for (; i < args.length; i++) {
+            churnArgs.add(args[i]);
+        }
+        if (children.isEmpty()) {
+            usage("no child JVMs specified");
+        }
+    }
+
+    private static void usage(String message)
+    {
+        System.out.println(message);
+        System.out.println("usage Launcher [-java J] [-concurrent] -jvm L O [-jvm L O ...] [-- TestRunner args]");
+        System.exit(1);
+    }
+
+    /**
+     * a child JVM and the thread which echoes its output and picks out its result
+     */
+    private static class Child extends Thread
+    {
+        private String label;
+        private String[] jvmOptions;
+        private volatile RunResult result;
+        private volatile int exitCode;
+
+        Child(String label, String[] jvmOptions)
+        {
+            this.label = label;
+            this.jvmOptions = jvmOptions;
+            this.result = null;
+            this.exitCode = -1;
+        }
+
+        String getLabel()
+        {
+            return label;
+        }
+
+        RunResult getResult()
+        {
+            return result;
+        }
+
+        int getExitCode()
+        {
+            return exitCode;
+        }
+
+        void waitFor()
+        {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                System.out.println("failed to join child " + label);
+                e.printStackTrace();
+            }
+        }
+
+        public void run()
+        {
+            List<String> command = new ArrayList<String>();
+            command.add(javaPath);
+            for (String option : jvmOptions) {
+                command.add(option);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(TestRunner.class.getName());
+            command.add("-label");
+            command.add(label);
+            command.addAll(churnArgs);
+            String prefix = "[" + label + "] ";
+            System.out.println(prefix + command);
+            try {
+                ProcessBuilder builder = new ProcessBuilder(command);
+                builder.redirectErrorStream(true);
+                Process process = builder.start();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith(RunResult.PREFIX)) {
+                            try {
+                                result = RunResult.decode(line);
+                            } catch (IOException e) {
+                                System.out.println(prefix + "invalid result : " + e.getMessage());
+                            }
+                        } else {
+                            System.out.println(prefix + line);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+                exitCode = process.waitFor();
+            } catch (IOException e) {
+                System.out.println(prefix + "failed to run child : " + e.getMessage());
+            } catch (InterruptedException e) {
+                System.out.println(prefix + "interrupted waiting for child");
+            }
+        }
+    }
+}
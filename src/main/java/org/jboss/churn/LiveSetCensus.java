@@ -0,0 +1,389 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A LiveSetCensus is a background thread which wakes up at a fixed interval while the
+ * workers are running and counts what the workload is actually holding live. It walks
+ * every worker's short term and long term map, or the shared long term map, in parallel
+ * and follows the reference chain hanging off each item. Items reached only through a
+ * chain, i.e. ones which have since been replaced in the maps, are counted as chained.
+ * Each census prints the item counts per map and per size class, an estimate of the bytes
+ * the items retain, the chain length percentiles and the heap occupancy after the last GC
+ * so the latter can be checked against what the workload holds.
+ *
+ * The census reads the maps while the workers update them so its figures are only
+ * approximately consistent. It never takes a worker lock except when looking up chained
+ * items in a striped shared map. The byte estimate assumes compressed oops and covers
+ * the items, their names and data blocks but not the maps themselves. Run with -footprint
+ * for an exact figure at the end of the run.
+ */
+public class LiveSetCensus extends Thread
+{
+    /**
+     * names of the size classes indexed by Workload.SIZE_MEGA etc
+     */
+    public final static String[] SIZE_NAMES = { "mega", "large", "medium", "small" };
+
+    /**
+     * the maximum number of links followed from any one item
+     */
+    private final static int MAX_CHAIN_LENGTH = 1000;
+
+    /**
+     * the workers whose items are counted
+     */
+    private TestRunner[] runners;
+
+    /**
+     * the shared long term map or null if each worker has its own
+     */
+    private SharedWorkItemMap sharedMap;
+
+    /**
+     * the number of items owned by each worker
+     */
+    private int itemCount;
+
+    /**
+     * the census interval in msecs
+     */
+    private long intervalMSecs;
+
+    /**
+     * a log to which each census line is written or null
+     */
+    private ResultLog resultLog;
+
+    private int censusCount;
+
+    /**
+     * the figures from the latest census or null if none has completed
+     */
+    private Tally last;
+
+    private long lastMSecs;
+
+    private long maxRetainedBytes;
+
+    /**
+     * set when the census should stop
+     */
+    private volatile boolean stopped;
+
+    public LiveSetCensus(TestRunner[] runners, SharedWorkItemMap sharedMap, int itemCount, int intervalSecs, ResultLog resultLog)
+    {
+        super("churn live set census");
+        setDaemon(true);
+        this.runners = runners;
+        this.sharedMap = sharedMap;
+        this.itemCount = itemCount;
+        this.intervalMSecs = intervalSecs * 1000L;
+        this.resultLog = resultLog;
+        this.censusCount = 0;
+        this.last = null;
+        this.stopped = false;
+    }
+
+    public void run()
+    {
+        long lastTime = System.currentTimeMillis();
+        while (!stopped) {
+            synchronized (this) {
+                long wakeTime = lastTime + intervalMSecs;
+                long now = System.currentTimeMillis();
+                while (!stopped && now < wakeTime) {
+                    try {
+                        wait(wakeTime - now);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    now = System.currentTimeMillis();
+                }
+            }
+            if (stopped) {
+                break;
+            }
+            lastTime = System.currentTimeMillis();
+            Tally tally = census();
+            long msecs = System.currentTimeMillis() - lastTime;
+            long heapAfterGC = heapAfterGC();
+            String line;
+            synchronized (this) {
+                censusCount++;
+                last = tally;
+                lastMSecs = msecs;
+                maxRetainedBytes = Math.max(maxRetainedBytes, tally.retainedBytes);
+                line = "census " + censusCount + " : " + describe(tally, msecs) + " heap after GC " +
+                        (heapAfterGC >= 0 ? (heapAfterGC / (1024 * 1024)) + " MBs" : "unknown");
+            }
+            System.out.println(line);
+            if (resultLog != null) {
+                resultLog.log(lastTime + " " + line);
+            }
+        }
+    }
+
+    /**
+     * ask the census to stop
+     */
+    public void finish()
+    {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * count the items held by all the maps, one parallel task per map
+     * @return the totals
+     */
+    private Tally census()
+    {
+        // items reached through a chain but no longer in a map may be reached from many
+        // chains so they need to be deduplicated
+        final Set<WorkItem> chained = ConcurrentHashMap.newKeySet();
+        final Tally total = new Tally();
+        IntStream.range(0, 2 * runners.length).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int i) {
+                final Tally tally = new Tally();
+                if (i < runners.length) {
+                    for (WorkItem item : runners[i].getShortTermMap().values()) {
+                        visit(item, false, tally, chained);
+                    }
+                } else if (sharedMap == null) {
+                    for (WorkItem item : runners[i - runners.length].getLongTermMap().values()) {
+                        visit(item, true, tally, chained);
+                    }
+                } else if (i == runners.length) {
+                    sharedMap.forEachItem(new Consumer<WorkItem>() {
+                        @Override
+                        public void accept(WorkItem item) {
+                            visit(item, true, tally, chained);
+                        }
+                    });
+                }
+                synchronized (total) {
+                    total.add(tally);
+                }
+            }
+        });
+        return total;
+    }
+
+    /**
+     * count an item held by a map and follow its reference chain
+     */
+    private void visit(WorkItem root, boolean longTerm, Tally tally, Set<WorkItem> chained)
+    {
+        if (longTerm) {
+            tally.longTermItems++;
+        } else {
+            tally.shortTermItems++;
+        }
+        tally.count(root);
+        WorkItem item = root;
+        WorkItem next = item.getReference();
+        int length = 0;
+        // a cleared item refers to itself. chains cannot cycle but the cap guards against
+        // following a chain a worker is relinking
+        while (next != item && length < MAX_CHAIN_LENGTH) {
+            length++;
+            if (!isMapped(next) && chained.add(next)) {
+                tally.chainedItems++;
+                tally.count(next);
+            }
+            item = next;
+            next = item.getReference();
+        }
+        tally.chainHistogram.count(length);
+        tally.maxChainLength = Math.max(tally.maxChainLength, length);
+    }
+
+    /**
+     * @return true if an item is currently held in its owner's short term or long term map
+     */
+    private boolean isMapped(WorkItem item)
+    {
+        String name = item.getName();
+        // parse the index from "item N" without allocating
+        int idx = 0;
+        for (int i = 5; i < name.length(); i++) {
+            idx = idx * 10 + (name.charAt(i) - '0');
+        }
+        int owner = idx / itemCount;
+        if (owner >= runners.length) {
+            return false;
+        }
+        TestRunner runner = runners[owner];
+        return runner.getShortTermMap().get(name) == item || runner.lookupLongTerm(name) == item;
+    }
+
+    /**
+     * @return the heap in use after the most recent collection of each heap pool or -1 if the
+     * JVM does not report it
+     */
+    private static long heapAfterGC()
+    {
+        long total = -1;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                total = Math.max(total, 0) + usage.getUsed();
+            }
+        }
+        return total;
+    }
+
+    private static String describe(Tally tally, long msecs)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("items short term ").append(tally.shortTermItems);
+        builder.append(" long term ").append(tally.longTermItems);
+        builder.append(" chained ").append(tally.chainedItems);
+        for (int i = 0; i < SIZE_NAMES.length; i++) {
+            builder.append(i == 0 ? " (" : " ").append(SIZE_NAMES[i]).append(' ').append(tally.sizeCounts[i]);
+        }
+        // percentiles are bucket upper bounds so they can exceed the max
+        builder.append(") retained ").append(tally.retainedBytes / (1024 * 1024)).append(" MBs");
+        builder.append(" chains 50% ").append(Math.min(tally.chainHistogram.getPercentile(50), tally.maxChainLength));
+        builder.append(" 99% ").append(Math.min(tally.chainHistogram.getPercentile(99), tally.maxChainLength));
+        builder.append(" max ").append(tally.maxChainLength);
+        builder.append(" in ").append(msecs).append(" msecs");
+        return builder.toString();
+    }
+
+    /**
+     * print the latest census and its chain length histogram
+     * @param str the stream to print to
+     */
+    public synchronized void printTo(PrintStream str)
+    {
+        if (last == null) {
+            str.println("Live set census did not complete, try a shorter interval");
+            return;
+        }
+        str.println("Live set census ran " + censusCount + " times, max retained " + maxRetainedBytes / (1024 * 1024) + " MBs");
+        str.println("  last " + describe(last, lastMSecs));
+        str.println("Chain Length Histogram (last census)");
+        last.chainHistogram.printTo(str);
+    }
+
+    public synchronized int getCensusCount()
+    {
+        return censusCount;
+    }
+
+    /**
+     * @return the bytes an item retains assuming compressed oops and 8 byte alignment
+     */
+    static long estimateBytes(WorkItem item)
+    {
+        // the item with 4 reference fields and its name string and bytes
+        long bytes = align(12 + 4 * 4) + 24 + align(16 + item.getName().length());
+        int blockCount = item.getBlockCount();
+        bytes += align(16 + 4 * blockCount) + blockCount * align(16 + item.getBlockSize());
+        if (item.getSlotCount() > 0) {
+            bytes += align(16 + 4 * item.getSlotCount());
+        }
+        return bytes;
+    }
+
+    private static long align(long bytes)
+    {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * @return the size class an item was created with, judged by its block size
+     */
+    static int sizeClassOf(WorkItem item)
+    {
+        int blockSize = item.getBlockSize();
+        if (blockSize >= 512 * 1024) {
+            return Workload.SIZE_MEGA;
+        } else if (blockSize >= 16 * 1024) {
+            return Workload.SIZE_LARGE;
+        } else if (blockSize >= 512) {
+            return Workload.SIZE_MEDIUM;
+        }
+        return Workload.SIZE_SMALL;
+    }
+
+    /**
+     * the counts made by one task or by a whole census
+     */
+    private static class Tally
+    {
+        long shortTermItems;
+        long longTermItems;
+        long chainedItems;
+        long[] sizeCounts = new long[SIZE_NAMES.length];
+        long retainedBytes;
+        LogHistogram chainHistogram = new LogHistogram(true, 10);
+        int maxChainLength;
+
+        void count(WorkItem item)
+        {
+            sizeCounts[sizeClassOf(item)]++;
+            retainedBytes += estimateBytes(item);
+        }
+
+        void add(Tally other)
+        {
+            shortTermItems += other.shortTermItems;
+            longTermItems += other.longTermItems;
+            chainedItems += other.chainedItems;
+            for (int i = 0; i < sizeCounts.length; i++) {
+                sizeCounts[i] += other.sizeCounts[i];
+            }
+            retainedBytes += other.retainedBytes;
+            chainHistogram.accumulate(other.chainHistogram);
+            maxChainLength = Math.max(maxChainLength, other.maxChainLength);
+        }
+    }
+}
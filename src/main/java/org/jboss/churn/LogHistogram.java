@@ -24,6 +24,9 @@
 
 package org.jboss.churn;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
 
 /**
@@ -317,6 +320,17 @@ public class LogHistogram
         return buckets[bucket].getIntervalCount(interval);
     }
 
+    /**
+     * get the number of buckets in the histogram. the last bucket also counts all values
+     * above its nominal range
+     *
+     * @return
+     */
+    public int getBucketTotal()
+    {
+        return bucketTotal;
+    }
+
     /**
      * get the number ofsamples included in the histogram
      *
@@ -345,6 +359,100 @@ public class LogHistogram
         sampleCount += other.sampleCount;
     }
 
+    /**
+     * estimate the value below which a given percentage of the samples fall. the estimate
+     * is the high value of the bucket (or bucket interval) containing the sample at that
+     * rank so it is only as precise as the histogram's bucket resolution.
+     *
+     * @param percentile a percentage in the range [0, 100]
+     * @return the estimated value or 0 if the histogram is empty
+     */
+    public long getPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("invalid percentile " + percentile);
+        }
+        if (sampleCount == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil((sampleCount * percentile) / 100);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int bucket = 0; bucket < bucketTotal; bucket++) {
+            long count = buckets[bucket].getCount();
+            if (seen + count < rank) {
+                seen += count;
+                continue;
+            }
+            if (intervalTotal == 1) {
+                return getHigh(bucket);
+            }
+            for (int interval = 0; interval < intervalTotal; interval++) {
+                seen += buckets[bucket].getIntervalCount(interval);
+                if (seen >= rank) {
+                    return getHigh(bucket, interval);
+                }
+            }
+        }
+        return getHigh(bucketTotal - 1);
+    }
+
+    /**
+     * write the configuration and counts of this histogram in a compact binary form which
+     * can be read back using {@link #readFrom(DataInput)}
+     *
+     * @param out the output to write to
+     * @throws IOException if the output cannot be written
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(bucketTotal);
+        out.writeInt(intervalTotal);
+        out.writeLong(sampleCount);
+        for (int bucket = 0; bucket < bucketTotal; bucket++) {
+            out.writeLong(buckets[bucket].getCount());
+            if (intervalTotal > 1) {
+                for (int interval = 0; interval < intervalTotal; interval++) {
+                    out.writeLong(buckets[bucket].getIntervalCount(interval));
+                }
+            }
+        }
+    }
+
+    /**
+     * read back a histogram written using {@link #writeTo(DataOutput)}
+     *
+     * @param in the input to read from
+     * @return the histogram
+     * @throws IOException if the input cannot be read or is not a valid histogram
+     */
+    public static LogHistogram readFrom(DataInput in) throws IOException
+    {
+        int bucketTotal = in.readInt();
+        int intervalTotal = in.readInt();
+        LogHistogram histogram;
+        try {
+            histogram = new LogHistogram(bucketTotal, intervalTotal > 1, intervalTotal);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid histogram data", e);
+        }
+        histogram.sampleCount = in.readLong();
+        for (int bucket = 0; bucket < bucketTotal; bucket++) {
+            long count = in.readLong();
+            long[] intervalCounts = null;
+            if (intervalTotal > 1) {
+                intervalCounts = new long[intervalTotal];
+                for (int interval = 0; interval < intervalTotal; interval++) {
+                    intervalCounts[interval] = in.readLong();
+                }
+            }
+            histogram.buckets[bucket].load(count, intervalCounts);
+        }
+        return histogram;
+    }
+
     // private implementation
 
     private int bucketTotal;
@@ -463,6 +571,7 @@ public class LogHistogram
         public long getCount();
         public long getIntervalCount(int interval);
         public void accumulate(Bucket other);
+        public void load(long count, long[] intervalCounts);
     }
 
     private static class SimpleBucket implements Bucket
@@ -490,6 +599,10 @@ public class LogHistogram
         public void accumulate(Bucket other) {
             count += other.getCount();
         }
+
+        public void load(long count, long[] intervalCounts) {
+            this.count = count;
+        }
     }
 
     private static class IntervalBucket implements Bucket
@@ -543,5 +656,10 @@ public class LogHistogram
             }
             this.count += other.getCount();
         }
+
+        public void load(long count, long[] intervalCounts) {
+            System.arraycopy(intervalCounts, 0, this.intervalCounts, 0, intervalTotal);
+            this.count = count;
+        }
     }
 }
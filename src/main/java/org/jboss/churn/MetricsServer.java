@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A MetricsServer serves live churn metrics over HTTP on the loopback interface at path
+ * /metrics in the OpenMetrics text format, so that a local Prometheus style scraper can chart
+ * a run alongside the JVM's own metrics. It uses the JDK's built in HTTP server so no extra
+ * dependencies are needed.
+ *
+ * The counters are those the workers publish at each slice boundary. The slice time
+ * histogram is the workers' histograms accumulated while they are being updated so its
+ * counts are only approximately consistent with each other and with its sum. Times are
+ * exposed in seconds, the OpenMetrics base unit.
+ */
+public class MetricsServer implements HttpHandler
+{
+    private final static String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private TestRunner[] runners;
+
+    /**
+     * the label identifying the run, attached to every metric
+     */
+    private String labels;
+
+    private HttpServer server;
+
+    /**
+     * create and start a server
+     * @param runners the workers whose metrics are served
+     * @param label the run label
+     * @param port the port to listen on
+     * @throws IOException if the server cannot be started
+     */
+    public MetricsServer(TestRunner[] runners, String label, int port) throws IOException
+    {
+        this.runners = runners;
+        this.labels = "label=\"" + label.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this);
+        server.start();
+    }
+
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(UTF8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the current metrics in OpenMetrics text format
+     */
+    String render()
+    {
+        long items = 0;
+        long allocation = 0;
+        long promotions = 0;
+        long purges = 0;
+        long sliceMSecs = 0;
+        LogHistogram histogram = new LogHistogram(true, 10);
+        for (TestRunner runner : runners) {
+            items += runner.getPublishedItems();
+            allocation += runner.getPublishedAllocation();
+            promotions += runner.getPublishedPromotions();
+            purges += runner.getPublishedPurges();
+            sliceMSecs += runner.getPublishedSliceMSecs();
+            histogram.accumulate(runner.getHistogram());
+        }
+        StringBuilder builder = new StringBuilder();
+        counter(builder, "churn_items_processed", "work items processed", items);
+        counter(builder, "churn_allocated_bytes", "estimated bytes allocated by the workers", allocation);
+        counter(builder, "churn_promotions", "items promoted to the long term work set", promotions);
+        counter(builder, "churn_purges", "long term work set purges", purges);
+        builder.append("# TYPE churn_gc_seconds counter\n");
+        builder.append("# HELP churn_gc_seconds time spent in GC pauses according to the GarbageCollectorMXBeans\n");
+        builder.append("churn_gc_seconds_total{").append(labels).append("} ").append(Monitor.totalGCTime() / 1000.0).append('\n');
+        histogram(builder, "churn_slice_seconds", "time taken by each slice of work", histogram, sliceMSecs);
+        builder.append("# EOF\n");
+        return builder.toString();
+    }
+
+    private void counter(StringBuilder builder, String name, String help, long value)
+    {
+        builder.append("# TYPE ").append(name).append(" counter\n");
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append(name).append("_total{").append(labels).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * append a histogram with one cumulative bucket per log bucket. values are whole msecs so
+     * the upper bound of each bucket is the highest value it can hold, converted to seconds.
+     * @param sumMSecs the total of the values counted in msecs
+     */
+    private void histogram(StringBuilder builder, String name, String help, LogHistogram histogram, long sumMSecs)
+    {
+        builder.append("# TYPE ").append(name).append(" histogram\n");
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        long cumulative = 0;
+        int bucketTotal = histogram.getBucketTotal();
+        for (int bucket = 0; bucket < bucketTotal - 1; bucket++) {
+            cumulative += histogram.getCount(bucket);
+            builder.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append(histogram.getHigh(bucket) / 1000.0).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += histogram.getCount(bucketTotal - 1);
+        builder.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+        builder.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        builder.append(name).append("_sum{").append(labels).append("} ").append(sumMSecs / 1000.0).append('\n');
+    }
+
+    /**
+     * stop serving
+     */
+    public void stop()
+    {
+        server.stop(0);
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Monitor is a background thread which wakes up at a fixed interval while the workers
+ * are running and prints the throughput achieved during the last interval i.e. the number
+ * of work items processed per second, the allocation rate and the percentage of the
+ * interval spent in GC pauses according to the GarbageCollectorMXBeans. When running in a cgroup
+ * it also prints how much of the interval the group was throttled for by its CPU quota.
+ *
+ * Workers only publish their item and allocation counts at slice boundaries so reading
+ * them costs the workers nothing. When a LongAdder is supplied the item count is read from
+ * it instead which gives an exact rather than a slice granular count.
+ *
+ * When a ResultLog is supplied each interval line is also written to the log followed by
+ * a snapshot of the workers' accumulated slice histogram.
+ */
+public class Monitor extends Thread
+{
+    /**
+     * the workers being monitored
+     */
+    private TestRunner[] runners;
+
+    /**
+     * the sample interval in msecs
+     */
+    private long intervalMSecs;
+
+    /**
+     * an adder counting items processed by all workers or null if the per worker counts
+     * should be used
+     */
+    private LongAdder itemAdder;
+
+    /**
+     * a log to which interval figures and histogram snapshots are written or null
+     */
+    private ResultLog resultLog;
+
+    /**
+     * set when the monitor should stop
+     */
+    private volatile boolean stopped;
+
+    public Monitor(TestRunner[] runners, int intervalSecs, LongAdder itemAdder, ResultLog resultLog)
+    {
+        super("churn monitor");
+        setDaemon(true);
+        this.runners = runners;
+        this.intervalMSecs = intervalSecs * 1000L;
+        this.itemAdder = itemAdder;
+        this.resultLog = resultLog;
+        this.stopped = false;
+    }
+
+    public void run()
+    {
+        int interval = 0;
+        long lastTime = System.currentTimeMillis();
+        long lastItems = itemCount();
+        long lastAllocation = allocationCount();
+        long lastGCTime = totalGCTime();
+        CGroupInfo lastCGroup = CGroupInfo.read();
+        while (!stopped) {
+            synchronized (this) {
+                long wakeTime = lastTime + intervalMSecs;
+                long now = System.currentTimeMillis();
+                while (!stopped && now < wakeTime) {
+                    try {
+                        wait(wakeTime - now);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    now = System.currentTimeMillis();
+                }
+            }
+            if (stopped) {
+                break;
+            }
+            interval++;
+            long time = System.currentTimeMillis();
+            long items = itemCount();
+            long allocation = allocationCount();
+            long gcTime = totalGCTime();
+            CGroupInfo cgroup = CGroupInfo.read();
+            long elapsed = Math.max(1, time - lastTime);
+            String throttling = "";
+            if (cgroup != null && lastCGroup != null) {
+                throttling = String.format(" throttled %d/%d periods %d msecs",
+                        cgroup.getThrottledPeriods() - lastCGroup.getThrottledPeriods(),
+                        cgroup.getPeriods() - lastCGroup.getPeriods(),
+                        (cgroup.getThrottledMicros() - lastCGroup.getThrottledMicros()) / 1000);
+            }
+            String line = String.format("interval %d : %d items/sec %.1f MB/sec GC %.1f%%%s", interval,
+                    ((items - lastItems) * 1000) / elapsed,
+                    ((allocation - lastAllocation) / (1024.0 * 1024.0)) / (elapsed / 1000.0),
+                    gcOverhead(gcTime - lastGCTime, elapsed), throttling);
+            System.out.println(line);
+            if (resultLog != null) {
+                resultLog.log(time + " " + line);
+                resultLog.log("interval " + interval + " Accumulated Histogram", histogramSnapshot());
+            }
+            lastCGroup = cgroup;
+            lastTime = time;
+            lastItems = items;
+            lastAllocation = allocation;
+            lastGCTime = gcTime;
+        }
+    }
+
+    /**
+     * ask the monitor to stop
+     */
+    public void finish()
+    {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    private long itemCount()
+    {
+        if (itemAdder != null) {
+            return itemAdder.sum();
+        }
+        long total = 0;
+        for (TestRunner runner : runners) {
+            total += runner.getPublishedItems();
+        }
+        return total;
+    }
+
+    /**
+     * @return the workers' slice histograms accumulated so far. the workers are still updating
+     * them so the counts are only approximately consistent.
+     */
+    private LogHistogram histogramSnapshot()
+    {
+        LogHistogram total = new LogHistogram(true, 10);
+        for (TestRunner runner : runners) {
+            total.accumulate(runner.getHistogram());
+        }
+        return total;
+    }
+
+    private long allocationCount()
+    {
+        long total = 0;
+        for (TestRunner runner : runners) {
+            total += runner.getPublishedAllocation();
+        }
+        return total;
+    }
+
+    /**
+     * @return the total time in msecs spent in GC pauses according to the GarbageCollectorMXBeans.
+     * beans which time concurrent cycles are left out.
+     */
+    public static long totalGCTime()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (isConcurrent(gcBean)) {
+                continue;
+            }
+            long time = gcBean.getCollectionTime();
+            if (time > 0) {
+                total += time;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * ZGC and Shenandoah publish a Cycles bean timing whole concurrent cycles next to a Pauses
+     * bean and recent JDKs give G1 a Concurrent GC bean. adding their time to the pause time
+     * would count the same collections twice and could take the overhead past 100%.
+     * @param gcBean a collector bean
+     * @return true if the bean times concurrent cycles rather than pauses
+     */
+    public static boolean isConcurrent(GarbageCollectorMXBean gcBean)
+    {
+        String name = gcBean.getName();
+        return name.endsWith(" Cycles") || name.endsWith(" Concurrent GC");
+    }
+
+    /**
+     * @param gcTime time spent in GC in msecs
+     * @param elapsed elapsed time in msecs
+     * @return the GC time as a percentage of the elapsed time
+     */
+    public static double gcOverhead(long gcTime, long elapsed)
+    {
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (gcTime * 100.0) / elapsed;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PerfCounters provides read access to the HotSpot jvmstat performance counters of the
+ * current JVM by memory mapping the JVM's own hsperfdata file (normally
+ * /tmp/hsperfdata_&lt;user&gt;/&lt;pid&gt;). The JVM updates the counters in place so,
+ * once a counter has been located, reading its current value is a single load from the
+ * mapped buffer which neither allocates nor perturbs the running workload.
+ *
+ * Counters are located by name and identified by the offset of their value in the
+ * mapping. Only scalar long counters are indexed. Times are recorded by the JVM in ticks
+ * of the high resolution timer whose frequency is given by counter sun.os.hrt.frequency.
+ *
+ * The file is only available when the JVM runs with -XX:+UsePerfData (the default) and
+ * without -XX:+PerfDisableSharedMem.
+ */
+public class PerfCounters
+{
+    /**
+     * the magic number at the start of every hsperfdata file. it is always stored big endian
+     */
+    private final static int PERFDATA_MAGIC = 0xcafec0c0;
+
+    // offsets of fields in the file prologue
+
+    private final static int PROLOGUE_BYTE_ORDER = 4;
+    private final static int PROLOGUE_ENTRY_OFFSET = 24;
+    private final static int PROLOGUE_NUM_ENTRIES = 28;
+
+    // offsets of fields in each entry
+
+    private final static int ENTRY_LENGTH = 0;
+    private final static int ENTRY_NAME_OFFSET = 4;
+    private final static int ENTRY_VECTOR_LENGTH = 8;
+    private final static int ENTRY_DATA_TYPE = 12;
+    private final static int ENTRY_DATA_OFFSET = 16;
+
+    /**
+     * the mapped file
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * value offsets of all scalar long counters indexed by name
+     */
+    private Map<String, Integer> offsets;
+
+    /**
+     * the number of entries indexed so far
+     */
+    private int indexedEntries;
+
+    /**
+     * the offset of the next entry to be indexed
+     */
+    private int nextEntry;
+
+    /**
+     * the frequency of the tick counter used to record times
+     */
+    private long frequency;
+
+    private PerfCounters(MappedByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer;
+        if (buffer.order(ByteOrder.BIG_ENDIAN).getInt(0) != PERFDATA_MAGIC) {
+            throw new IOException("invalid hsperfdata magic number");
+        }
+        buffer.order(buffer.get(PROLOGUE_BYTE_ORDER) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        this.offsets = new HashMap<String, Integer>();
+        this.indexedEntries = 0;
+        this.nextEntry = buffer.getInt(PROLOGUE_ENTRY_OFFSET);
+        index();
+        int frequencyOffset = find("sun.os.hrt.frequency");
+        this.frequency = (frequencyOffset < 0 ? 1000000000L : get(frequencyOffset));
+    }
+
+    /**
+     * open the counters for the current JVM
+     * @return the counters or null if the hsperfdata file cannot be found or read
+     */
+    public static PerfCounters open()
+    {
+        File file = findFile();
+        if (file == null) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                // the mapping remains valid once the channel is closed
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new PerfCounters(buffer);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            System.out.println("cannot read perf counters from " + file + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * locate the hsperfdata file for the current JVM
+     * @return the file or null if it cannot be found
+     */
+    private static File findFile()
+    {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        if (at <= 0) {
+            return null;
+        }
+        String pid = name.substring(0, at);
+        File tmp = new File(System.getProperty("java.io.tmpdir"));
+        File file = new File(new File(tmp, "hsperfdata_" + System.getProperty("user.name")), pid);
+        if (file.isFile()) {
+            return file;
+        }
+        // the JVM may have derived a different user name so try every user's directory
+        File[] dirs = tmp.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (dir.getName().startsWith("hsperfdata_")) {
+                    file = new File(dir, pid);
+                    if (file.isFile()) {
+                        return file;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * index any entries added since the last call
+     */
+    private void index()
+    {
+        int numEntries = buffer.getInt(PROLOGUE_NUM_ENTRIES);
+        while (indexedEntries < numEntries) {
+            int entry = nextEntry;
+            int length = buffer.getInt(entry + ENTRY_LENGTH);
+            if (length <= 0) {
+                // the JVM has not finished writing this entry
+                break;
+            }
+            int vectorLength = buffer.getInt(entry + ENTRY_VECTOR_LENGTH);
+            byte type = buffer.get(entry + ENTRY_DATA_TYPE);
+            if (type == 'J' && vectorLength == 0) {
+                offsets.put(readName(entry + buffer.getInt(entry + ENTRY_NAME_OFFSET)),
+                        entry + buffer.getInt(entry + ENTRY_DATA_OFFSET));
+            }
+            nextEntry += length;
+            indexedEntries++;
+        }
+    }
+
+    private String readName(int offset)
+    {
+        StringBuilder builder = new StringBuilder();
+        byte b;
+        while ((b = buffer.get(offset++)) != 0) {
+            builder.append((char)b);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * locate a counter
+     * @param name the counter name e.g. sun.rt.safepoints
+     * @return the offset of the counter's value or -1 if there is no such long counter
+     */
+    public int find(String name)
+    {
+        Integer offset = offsets.get(name);
+        if (offset == null) {
+            // the JVM may have created more counters since we last looked
+            index();
+            offset = offsets.get(name);
+        }
+        return (offset == null ? -1 : offset);
+    }
+
+    /**
+     * list the names of all long counters whose names start with a prefix and end with a suffix
+     * @param prefix the name prefix e.g. sun.gc.collector.
+     * @param suffix the name suffix e.g. .time
+     * @return the matching names in sorted order
+     */
+    public List<String> names(String prefix, String suffix)
+    {
+        index();
+        List<String> matches = new ArrayList<String>();
+        for (String name : offsets.keySet()) {
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                matches.add(name);
+            }
+        }
+        Collections.sort(matches);
+        return matches;
+    }
+
+    /**
+     * read the current value of a counter. this does not allocate.
+     * @param offset the offset returned by {@link #find(String)}
+     * @return the current value
+     */
+    public long get(int offset)
+    {
+        return buffer.getLong(offset);
+    }
+
+    /**
+     * @param ticks a time recorded in high resolution timer ticks
+     * @return the time in msecs
+     */
+    public double ticksToMillis(long ticks)
+    {
+        return (ticks * 1000.0) / frequency;
+    }
+
+    /**
+     * @param ticks a time recorded in high resolution timer ticks
+     * @return the time in usecs
+     */
+    public long ticksToMicros(long ticks)
+    {
+        return (long)((ticks * 1000000.0) / frequency);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A PerfSampler is a thread which samples a fixed set of HotSpot perf counters at a high
+ * rate (1000 times a second by default) producing a time series of GC times and counts,
+ * generation and space sizes and safepoint counts and times. The counters are read from
+ * the memory mapped hsperfdata file via {@link PerfCounters} so taking a sample neither
+ * allocates nor calls into the JVM, unlike sampling the management beans.
+ *
+ * Samples are stored in a small, fixed set of preallocated batches of BATCH_SAMPLES
+ * samples. A writer thread appends each full batch to the CSV file and hands it back for
+ * reuse, so however long the run the sampler only holds BATCH_COUNT batches on the heap
+ * of the JVM it is measuring. If the writer falls so far behind that no batch is free the
+ * samples are dropped and counted. Counters which record times in ticks are converted to
+ * msecs as they are written.
+ */
+public class PerfSampler extends Thread
+{
+    /**
+     * the number of samples stored in each batch
+     */
+    private final static int BATCH_SAMPLES = 1024;
+
+    /**
+     * the number of batches shared by the sampler and the writer
+     */
+    private final static int BATCH_COUNT = 4;
+
+    private PerfCounters counters;
+
+    /**
+     * the names of the sampled counters
+     */
+    private List<String> names;
+
+    /**
+     * the value offsets of the sampled counters
+     */
+    private int[] offsets;
+
+    /**
+     * true for counters whose values are times in ticks
+     */
+    private boolean[] ticks;
+
+    /**
+     * the time between samples in nanoseconds
+     */
+    private long periodNanos;
+
+    /**
+     * batches ready to be filled
+     */
+    private BlockingQueue<Batch> free;
+
+    /**
+     * batches ready to be written. an empty batch tells the writer to stop.
+     */
+    private BlockingQueue<Batch> full;
+
+    private Writer writer;
+
+    /**
+     * the total number of samples taken
+     */
+    private int sampleCount;
+
+    /**
+     * the number of samples dropped because no batch was free
+     */
+    private int droppedCount;
+
+    /**
+     * the largest gap between successive samples in nanoseconds
+     */
+    private long maxGapNanos;
+
+    /**
+     * set when the sampler should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * create a sampler and open the CSV file it writes to
+     * @param counters the counters to sample
+     * @param rate the number of samples per second
+     * @param file the file to write to
+     * @throws IOException if the file cannot be opened
+     */
+    public PerfSampler(PerfCounters counters, int rate, File file) throws IOException
+    {
+        super("churn perf sampler");
+        setDaemon(true);
+        this.counters = counters;
+        this.names = new ArrayList<String>();
+        names.addAll(counters.names("sun.rt.safepoint", ""));
+        names.addAll(counters.names("sun.gc.collector.", ".invocations"));
+        names.addAll(counters.names("sun.gc.collector.", ".time"));
+        names.addAll(counters.names("sun.gc.generation.", ".capacity"));
+        names.addAll(counters.names("sun.gc.generation.", ".used"));
+        this.offsets = new int[names.size()];
+        this.ticks = new boolean[names.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            String name = names.get(i);
+            offsets[i] = counters.find(name);
+            ticks[i] = name.endsWith("Time") || name.endsWith(".time");
+        }
+        this.periodNanos = 1000000000L / rate;
+        this.free = new ArrayBlockingQueue<Batch>(BATCH_COUNT);
+        this.full = new ArrayBlockingQueue<Batch>(BATCH_COUNT + 1);
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            free.add(new Batch(BATCH_SAMPLES * (offsets.length + 1)));
+        }
+        this.writer = new Writer(file);
+        this.sampleCount = 0;
+        this.droppedCount = 0;
+        this.maxGapNanos = 0;
+        this.stopped = false;
+    }
+
+    public void start()
+    {
+        writer.start();
+        super.start();
+    }
+
+    public void run()
+    {
+        int width = offsets.length + 1;
+        Batch batch = null;
+        long start = System.nanoTime();
+        long last = start;
+        long deadline = start;
+        while (!stopped) {
+            long now = System.nanoTime();
+            if (batch == null) {
+                batch = free.poll();
+            }
+            if (batch != null) {
+                long[] samples = batch.samples;
+                int index = batch.count * width;
+                samples[index++] = (now - start) / 1000;
+                for (int i = 0; i < offsets.length; i++) {
+                    samples[index++] = counters.get(offsets[i]);
+                }
+                sampleCount++;
+                if (++batch.count == BATCH_SAMPLES) {
+                    full.add(batch);
+                    batch = null;
+                }
+            } else {
+                droppedCount++;
+            }
+            if (now - last > maxGapNanos) {
+                maxGapNanos = now - last;
+            }
+            last = now;
+            // schedule against a fixed deadline so that late wakeups do not accumulate
+            deadline += periodNanos;
+            if (deadline < now) {
+                deadline = now + periodNanos;
+            }
+            LockSupport.parkNanos(deadline - now);
+        }
+        if (batch != null && batch.count > 0) {
+            full.add(batch);
+        }
+        // tell the writer to stop
+        full.add(new Batch(0));
+    }
+
+    /**
+     * ask the sampler to stop and wait for it and the writer to do so
+     */
+    public void finish()
+    {
+        stopped = true;
+        try {
+            join();
+            writer.join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * close the CSV file once the sampler has finished
+     * @throws IOException if any of the samples could not be written
+     */
+    public void close() throws IOException
+    {
+        writer.close();
+    }
+
+    public int getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    public int getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    public int getCounterCount()
+    {
+        return offsets.length;
+    }
+
+    public long getMaxGapNanos()
+    {
+        return maxGapNanos;
+    }
+
+    /**
+     * a batch of samples. each sample comprises the sample time in usecs followed by the
+     * counter values.
+     */
+    private static class Batch
+    {
+        long[] samples;
+        int count;
+
+        Batch(int size)
+        {
+            this.samples = new long[size];
+            this.count = 0;
+        }
+    }
+
+    /**
+     * a thread which writes full batches to the CSV file, one line per sample
+     */
+    private class Writer extends Thread
+    {
+        private File file;
+
+        private PrintWriter out;
+
+        Writer(File file) throws IOException
+        {
+            super("churn perf writer");
+            setDaemon(true);
+            this.file = file;
+            this.out = new PrintWriter(new FileWriter(file));
+            StringBuilder header = new StringBuilder("usecs");
+            for (int i = 0; i < names.size(); i++) {
+                header.append(',').append(names.get(i));
+                if (ticks[i]) {
+                    header.append("(ms)");
+                }
+            }
+            out.println(header);
+        }
+
+        public void run()
+        {
+            int width = offsets.length + 1;
+            // the line and the characters copied out of it are reused so that writing a sample
+            // does not allocate
+            StringBuilder line = new StringBuilder();
+            char[] chars = new char[256];
+            while (true) {
+                Batch batch;
+                try {
+                    batch = full.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (batch.samples.length == 0) {
+                    break;
+                }
+                long[] samples = batch.samples;
+                for (int index = 0; index < batch.count * width; index += width) {
+                    line.setLength(0);
+                    line.append(samples[index]);
+                    for (int i = 0; i < offsets.length; i++) {
+                        line.append(',');
+                        if (ticks[i]) {
+                            appendMillis(line, counters.ticksToMicros(samples[index + 1 + i]));
+                        } else {
+                            line.append(samples[index + 1 + i]);
+                        }
+                    }
+                    if (chars.length < line.length()) {
+                        chars = new char[2 * line.length()];
+                    }
+                    line.getChars(0, line.length(), chars, 0);
+                    out.write(chars, 0, line.length());
+                    out.println();
+                }
+                batch.count = 0;
+                free.add(batch);
+            }
+        }
+
+        /**
+         * append a time in usecs as msecs with three decimal places using integer arithmetic
+         */
+        private void appendMillis(StringBuilder line, long micros)
+        {
+            if (micros < 0) {
+                line.append('-');
+                micros = -micros;
+            }
+            long fraction = micros % 1000;
+            line.append(micros / 1000).append('.');
+            if (fraction < 100) {
+                line.append('0');
+            }
+            if (fraction < 10) {
+                line.append('0');
+            }
+            line.append(fraction);
+        }
+
+        void close() throws IOException
+        {
+            out.close();
+            if (out.checkError()) {
+                throw new IOException("error writing " + file);
+            }
+        }
+    }
+}
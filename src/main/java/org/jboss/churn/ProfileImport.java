@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * ProfileImport is a main class which builds an {@link AllocationProfile} from a JFR
+ * recording of a real application and saves it for use with TestRunner -profile. The
+ * following events are used when present:
+ * <ul>
+ *     <li>jdk.ObjectAllocationInNewTLAB and jdk.ObjectAllocationOutsideTLAB give allocation
+ *     sizes and so the size class fractions. an in TLAB event stands for a TLAB's worth of
+ *     allocation so it is weighted by the number of objects of its size that fit in the TLAB.</li>
+ *     <li>jdk.ObjectAllocationSample gives the bytes allocated per type.</li>
+ * </ul>
+ * Only the size class fractions drive the workload. Size classes which the recording does
+ * not provide are left at the built in defaults. The type profile is printed for
+ * information only since churn always allocates the same types.
+ *
+ * The recording cannot tell what fraction of objects survive. Old object samples are capped
+ * by the size of the old object queue and allocation samples are throttled so neither the
+ * ratio of their counts nor the ages of the old objects depend only on the application.
+ * The promotion odds therefore have to be given with -promotionOdds or are left at the
+ * default and jdk.OldObjectSample events are not read.
+ */
+public class ProfileImport
+{
+    /**
+     * the number of types listed in the type profile
+     */
+    private final static int TOP_TYPES = 10;
+
+    private static File jfrFile = null;
+
+    private static File profileFile = null;
+
+    /**
+     * the promotion odds to record in the profile or 0 to use the default
+     */
+    private static int promotionOdds = 0;
+
+    /**
+     * main method allowing a recording to be imported. command line options are as follows:
+     * <ul>
+     *     <li>-jfr F -- the JFR recording to read</li>
+     *     <li>-out P -- the properties file to write the profile to</li>
+     *     <li>-promotionOdds N -- the odds against an item being promoted to record in the
+     *     profile (defaults to churn's built in odds)</li>
+     * </ul>
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        processArgs(args);
+
+        double[] sizeCounts = new double[4];
+        long sizeEvents = 0;
+        long allocationSamples = 0;
+        Map<String, Long> typeBytes = new HashMap<String, Long>();
+        try {
+            RecordingFile recording = new RecordingFile(jfrFile.toPath());
+            try {
+                while (recording.hasMoreEvents()) {
+                    RecordedEvent event = recording.readEvent();
+                    String name = event.getEventType().getName();
+                    if (name.equals("jdk.ObjectAllocationInNewTLAB")) {
+                        long size = Math.max(1, event.getLong("allocationSize"));
+                        sizeCounts[AllocationProfile.sizeClassOf(size)] += Math.max(1, event.getLong("tlabSize") / size);
+                        sizeEvents++;
+                        addTypeBytes(typeBytes, event.getClass("objectClass"), event.getLong("tlabSize"));
+                    } else if (name.equals("jdk.ObjectAllocationOutsideTLAB")) {
+                        long size = event.getLong("allocationSize");
+                        sizeCounts[AllocationProfile.sizeClassOf(size)] += 1;
+                        sizeEvents++;
+                        addTypeBytes(typeBytes, event.getClass("objectClass"), size);
+                    } else if (name.equals("jdk.ObjectAllocationSample")) {
+                        allocationSamples++;
+                        addTypeBytes(typeBytes, event.getClass("objectClass"), event.getLong("weight"));
+                    }
+                }
+            } finally {
+                recording.close();
+            }
+        } catch (IOException e) {
+            System.out.println("failed to read " + jfrFile + " : " + e.getMessage());
+            System.exit(2);
+        }
+
+        AllocationProfile profile = new AllocationProfile();
+        profile.setSource(jfrFile.getName());
+        if (sizeEvents > 0) {
+            profile.setSizeCounts(sizeCounts);
+        } else {
+            System.out.println("no TLAB allocation events, using default size classes");
+        }
+        if (promotionOdds > 0) {
+            profile.setPromotionOdds(promotionOdds);
+        } else {
+            System.out.println("no -promotionOdds given, using default promotion odds");
+        }
+
+        System.out.println("read " + sizeEvents + " allocation size events and " + allocationSamples + " allocation samples");
+        printTypes(typeBytes);
+        profile.printTo(System.out);
+        try {
+            profile.store(profileFile);
+        } catch (IOException e) {
+            System.out.println("failed to write " + profileFile + " : " + e.getMessage());
+            System.exit(2);
+        }
+        System.out.println("profile written to " + profileFile);
+    }
+
+    private static void addTypeBytes(Map<String, Long> typeBytes, RecordedClass type, long bytes)
+    {
+        if (type == null) {
+            return;
+        }
+        Long total = typeBytes.get(type.getName());
+        typeBytes.put(type.getName(), (total == null ? bytes : total + bytes));
+    }
+
+    /**
+     * print the number of types seen and the types accounting for the most bytes allocated
+     */
+    private static void printTypes(final Map<String, Long> typeBytes)
+    {
+        long total = 0;
+        for (long bytes : typeBytes.values()) {
+            total += bytes;
+        }
+        List<String> types = new ArrayList<String>(typeBytes.keySet());
+        Collections.sort(types, new Comparator<String>() {
+            @Override
+            public int compare(String type1, String type2) {
+                return Long.compare(typeBytes.get(type2), typeBytes.get(type1));
+            }
+        });
+        System.out.println(types.size() + " types allocated");
+        for (int i = 0; i < types.size() && i < TOP_TYPES; i++) {
+            long bytes = typeBytes.get(types.get(i));
+            System.out.println(String.format("  %6.2f%% %s", (total > 0 ? (bytes * 100.0) / total : 0.0), types.get(i)));
+        }
+    }
+
+    private static void processArgs(String[] args)
+    {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-jfr") && i + 1 < args.length) {
+                i++;
+                jfrFile = new File(args[i]);
+                if (!jfrFile.isFile()) {
+                    usage("invalid recording " + args[i]);
+                }
+            } else if (args[i].equals("-out") && i + 1 < args.length) {
+                i++;
+                profileFile = new File(args[i]);
+            } else if (args[i].equals("-promotionOdds") && i + 1 < args.length) {
+                i++;
+                try {
+                    promotionOdds = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    usage("invalid promotion odds " + args[i]);
+                }
+                if (promotionOdds < AllocationProfile.MIN_PROMOTION_ODDS || promotionOdds > AllocationProfile.MAX_PROMOTION_ODDS) {
+                    usage("promotion odds must lie between " + AllocationProfile.MIN_PROMOTION_ODDS + " and " +
+                            AllocationProfile.MAX_PROMOTION_ODDS);
+                }
+            } else {
+                usage("invalid argument " + args[i]);
+            }
+        }
+        if (jfrFile == null || profileFile == null) {
+            usage("both a recording and an output file are required");
+        }
+    }
+
+    private static void usage(String message)
+    {
+        System.out.println(message);
+        System.out.println("usage ProfileImport -jfr F -out P [-promotionOdds N]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.util.Random;
+
+/**
+ * A ProfileWorkload makes random decisions like a {@link RandomWorkload} but picks item
+ * size classes and promotions using the figures in an {@link AllocationProfile} rather
+ * than the built in odds. Linking and purging are unchanged. A {@link ChurnControl} can
+ * change the purge odds but not the profile's promotion odds or size classes.
+ */
+public class ProfileWorkload extends RandomWorkload
+{
+    /**
+     * the cumulative size class fractions indexed by Workload.SIZE_MEGA etc
+     */
+    private double[] cumulative;
+
+    private int promotionOdds;
+
+    public ProfileWorkload(Random random, AllocationProfile profile)
+    {
+        super(random);
+        this.cumulative = new double[4];
+        double total = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            total += profile.getSizeFraction(i);
+            cumulative[i] = total;
+        }
+        this.promotionOdds = profile.getPromotionOdds();
+    }
+
+    public boolean promote(boolean forced, int multiplier)
+    {
+        if (forced) {
+            return true;
+        }
+        // as for the random workload the odds per item vary but average 1 in promotionOdds
+        int ratio = promotionOdds * multiplier;
+        int randomValue = random.nextInt(2 * ratio);
+        int cutoff = random.nextInt(3);
+        return randomValue <= cutoff;
+    }
+
+    public int sizeClass()
+    {
+        double value = random.nextDouble();
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (value < cumulative[i]) {
+                return i;
+            }
+        }
+        return cumulative.length - 1;
+    }
+}
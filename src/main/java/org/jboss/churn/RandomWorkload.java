@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.util.Random;
+
+/**
+ * The standard workload which makes each decision at random using the odds defined in
+ * TestRunner or, after a change made through a {@link ChurnControl}, the odds it holds.
+ * Random values are drawn in exactly the order the worker threads have always drawn them
+ * so a given seed produces the same sequence of decisions as earlier versions.
+ */
+public class RandomWorkload extends Workload
+{
+    protected Random random;
+
+    private int promotionOdds;
+
+    private int purgeOdds;
+
+    private int megaLargeObjectOdds;
+
+    private int largeObjectOdds;
+
+    public RandomWorkload(Random random)
+    {
+        this.random = random;
+        this.promotionOdds = TestRunner.PROMOTION_ODDS;
+        this.purgeOdds = TestRunner.DUMP_LONG_TERM_ODDS;
+        this.megaLargeObjectOdds = TestRunner.MEGA_LARGE_OBJECT_ODDS;
+        this.largeObjectOdds = TestRunner.LARGE_OBJECT_ODDS;
+    }
+
+    public void tune(ChurnControl control)
+    {
+        promotionOdds = control.getPromotionOdds();
+        purgeOdds = control.getPurgeOdds();
+        megaLargeObjectOdds = control.getMegaLargeObjectOdds();
+        largeObjectOdds = control.getLargeObjectOdds();
+    }
+
+    public int initialLink(int bound)
+    {
+        if (random.nextInt(TestRunner.LINK_ODDS) == 0) {
+            return random.nextInt(bound);
+        }
+        return NO_LINK;
+    }
+
+    public boolean promote(boolean forced, int multiplier)
+    {
+        if (forced) {
+            return true;
+        }
+        int ratio = promotionOdds * multiplier;
+        // we vary the odds randomly per item but ensure that they average to 1 in PROMOTION_ODDS
+        int randomValue = random.nextInt(2 * ratio);
+        int cutoff = random.nextInt(3); // odds are uniformly either 1/2N, 2/2N or 3/2N
+        return randomValue <= cutoff;
+    }
+
+    public int sizeClass()
+    {
+        if (random.nextInt(megaLargeObjectOdds) == 0) {
+            return SIZE_MEGA;
+        }
+        int sizeRandomizer = random.nextInt(largeObjectOdds);
+        if (sizeRandomizer == 0) {
+            return SIZE_LARGE;
+        } else if (sizeRandomizer < 4) {
+            return SIZE_MEDIUM;
+        }
+        return SIZE_SMALL;
+    }
+
+    public int link(int bound)
+    {
+        if (random.nextInt(TestRunner.LINK_ODDS) == 0) {
+            return random.nextInt(bound);
+        }
+        return NO_LINK;
+    }
+
+    public int sharedLink(int bound)
+    {
+        return link(bound);
+    }
+
+    public int fallbackLink(int bound)
+    {
+        return random.nextInt(bound);
+    }
+
+    public void endItem()
+    {
+    }
+
+    public boolean purge(int threshold)
+    {
+        return random.nextInt(purgeOdds) <= threshold;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A RecordingWorkload passes on the decisions made by another workload and writes them to
+ * a compact binary trace file which a {@link ReplayWorkload} can later replay. The trace
+ * has the following format, all values being big endian:
+ * <ul>
+ *     <li>a header of five ints: MAGIC, VERSION, thread count, thread id and item count</li>
+ *     <li>one int per initially populated item holding the offset of the item it links to or -1</li>
+ *     <li>for each pass, one record per item processed followed by a purge byte (0 or 1)</li>
+ * </ul>
+ * Each item record is a flags byte holding the promotion decision in bit 0, the size class
+ * in bits 1-2 and the link kind in bits 3-4, followed by the link target ints, if any. A
+ * local link is followed by its offset, a shared link by its index and a shared link which
+ * fell back to a local link by its index then the local offset.
+ *
+ * A worker can stop part way through a pass, for example when it is parked at the end of
+ * the run, so on close the trace is truncated to the end of the last complete pass. A
+ * replay then never runs out of records in the middle of a pass.
+ */
+public class RecordingWorkload extends Workload
+{
+    public final static int MAGIC = 0x43485452;
+
+    public final static int VERSION = 1;
+
+    public final static int PROMOTE_FLAG = 1;
+    public final static int SIZE_SHIFT = 1;
+    public final static int SIZE_MASK = 3;
+    public final static int LINK_SHIFT = 3;
+    public final static int LINK_MASK = 3;
+
+    public final static int LINK_NONE = 0;
+    public final static int LINK_LOCAL = 1;
+    public final static int LINK_SHARED = 2;
+    public final static int LINK_FALLBACK = 3;
+
+    /**
+     * the workload making the decisions
+     */
+    private Workload source;
+
+    private File file;
+
+    private DataOutputStream out;
+
+    /**
+     * the decisions made so far for the current item
+     */
+    private int flags;
+    private int target;
+    private int fallbackTarget;
+
+    /**
+     * the number of bytes written so far and the number written at the end of the last
+     * complete pass, or of the initial links before the first pass ends
+     */
+    private long written;
+    private long passEnd;
+
+    /**
+     * the first error seen writing the trace. once writing fails the rest of the trace is dropped
+     */
+    private IOException error;
+
+    public RecordingWorkload(File file, Workload source, int threadCount, int threadId, int itemCount) throws IOException
+    {
+        this.source = source;
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(threadCount);
+        out.writeInt(threadId);
+        out.writeInt(itemCount);
+        this.written = 20;
+        this.passEnd = written;
+        this.error = null;
+    }
+
+    public int initialLink(int bound)
+    {
+        int offset = source.initialLink(bound);
+        if (error == null) {
+            try {
+                out.writeInt(offset);
+                written += 4;
+                passEnd = written;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        return offset;
+    }
+
+    public boolean promote(boolean forced, int multiplier)
+    {
+        boolean promote = source.promote(forced, multiplier);
+        flags = (promote ? PROMOTE_FLAG : 0);
+        return promote;
+    }
+
+    public int sizeClass()
+    {
+        int sizeClass = source.sizeClass();
+        flags |= sizeClass << SIZE_SHIFT;
+        return sizeClass;
+    }
+
+    public int link(int bound)
+    {
+        target = source.link(bound);
+        if (target != NO_LINK) {
+            flags |= LINK_LOCAL << LINK_SHIFT;
+        }
+        return target;
+    }
+
+    public int sharedLink(int bound)
+    {
+        target = source.sharedLink(bound);
+        if (target != NO_LINK) {
+            flags |= LINK_SHARED << LINK_SHIFT;
+        }
+        return target;
+    }
+
+    public int fallbackLink(int bound)
+    {
+        fallbackTarget = source.fallbackLink(bound);
+        flags |= LINK_FALLBACK << LINK_SHIFT;
+        return fallbackTarget;
+    }
+
+    public void endItem()
+    {
+        if (error != null) {
+            return;
+        }
+        try {
+            out.writeByte(flags);
+            written++;
+            int kind = (flags >> LINK_SHIFT) & LINK_MASK;
+            if (kind != LINK_NONE) {
+                out.writeInt(target);
+                written += 4;
+            }
+            if (kind == LINK_FALLBACK) {
+                out.writeInt(fallbackTarget);
+                written += 4;
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    public boolean purge(int threshold)
+    {
+        boolean purge = source.purge(threshold);
+        if (error == null) {
+            try {
+                out.writeByte(purge ? 1 : 0);
+                written++;
+                passEnd = written;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        return purge;
+    }
+
+    public void tune(ChurnControl control)
+    {
+        source.tune(control);
+    }
+
+    public void close() throws IOException
+    {
+        out.close();
+        if (error != null) {
+            throw new IOException("failed writing trace " + file + " : " + error.getMessage(), error);
+        }
+        if (written > passEnd) {
+            // drop the records of an unfinished pass
+            RandomAccessFile trace = new RandomAccessFile(file, "rw");
+            try {
+                trace.setLength(passEnd);
+            } finally {
+                trace.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A ReplayWorkload replays the decisions saved in a trace file written by a
+ * {@link RecordingWorkload}. The file is memory mapped a window at a time so reading a
+ * decision does not allocate and traces larger than 2Gb can be replayed.
+ *
+ * A replayed run performs the same number of passes as the recorded run and makes the
+ * same decisions, so every collector sees the same allocation stream. The only exception
+ * is a link into a shared long term map, whose contents depend on thread timing: when the
+ * linked item is missing during replay but was present when recording, the link falls back
+ * to an item in the thread's own work set chosen from the recorded index.
+ */
+public class ReplayWorkload extends Workload
+{
+    /**
+     * the size of each mapped window of the file
+     */
+    private final static long WINDOW_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * the largest item record is a flags byte plus two ints
+     */
+    private final static int MAX_RECORD_SIZE = 9;
+
+    private File file;
+
+    private FileChannel channel;
+
+    private long fileSize;
+
+    /**
+     * the file offset of the current window
+     */
+    private long windowStart;
+
+    private MappedByteBuffer window;
+
+    /**
+     * the decisions for the current item
+     */
+    private int flags;
+    private int target;
+    private int fallbackTarget;
+
+    public ReplayWorkload(File file, int threadCount, int threadId, int itemCount) throws IOException
+    {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowStart = 0;
+        map();
+        if (fileSize < 20 || window.getInt() != RecordingWorkload.MAGIC) {
+            throw new IOException(file + " is not a churn trace");
+        }
+        int version = window.getInt();
+        if (version != RecordingWorkload.VERSION) {
+            throw new IOException(file + " has unsupported trace version " + version);
+        }
+        int recordedThreads = window.getInt();
+        int recordedId = window.getInt();
+        int recordedItems = window.getInt();
+        if (recordedThreads != threadCount || recordedId != threadId || recordedItems != itemCount) {
+            throw new IOException(file + " was recorded for thread " + recordedId + " of " + recordedThreads +
+                    " with " + recordedItems + " items per thread");
+        }
+    }
+
+    /**
+     * map the window starting at windowStart
+     */
+    private void map() throws IOException
+    {
+        long size = Math.min(WINDOW_SIZE, fileSize - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+    }
+
+    /**
+     * make sure the current window holds the next record, moving it along if need be
+     */
+    private void ensure()
+    {
+        if (window.remaining() < MAX_RECORD_SIZE && windowStart + window.limit() < fileSize) {
+            windowStart += window.position();
+            try {
+                map();
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot map " + file + " : " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public int initialLink(int bound)
+    {
+        ensure();
+        return window.getInt();
+    }
+
+    public boolean promote(boolean forced, int multiplier)
+    {
+        // the whole record is read up front as this is always the first decision for an item
+        ensure();
+        flags = window.get();
+        int kind = (flags >> RecordingWorkload.LINK_SHIFT) & RecordingWorkload.LINK_MASK;
+        target = (kind != RecordingWorkload.LINK_NONE ? window.getInt() : NO_LINK);
+        fallbackTarget = (kind == RecordingWorkload.LINK_FALLBACK ? window.getInt() : NO_LINK);
+        return (flags & RecordingWorkload.PROMOTE_FLAG) != 0;
+    }
+
+    public int sizeClass()
+    {
+        return (flags >> RecordingWorkload.SIZE_SHIFT) & RecordingWorkload.SIZE_MASK;
+    }
+
+    public int link(int bound)
+    {
+        return target;
+    }
+
+    public int sharedLink(int bound)
+    {
+        return target;
+    }
+
+    public int fallbackLink(int bound)
+    {
+        if (fallbackTarget != NO_LINK) {
+            return fallbackTarget;
+        }
+        // the recorded run found the shared item but this one did not
+        return target % bound;
+    }
+
+    public void endItem()
+    {
+    }
+
+    public boolean purge(int threshold)
+    {
+        ensure();
+        return window.get() != 0;
+    }
+
+    public boolean hasMore()
+    {
+        return windowStart + window.position() < fileSize;
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A ResultLog streams result lines (interval figures, histogram snapshots and the final
+ * summary) to a GZIP compressed log file so that long runs can keep a complete record
+ * without filling the disk. Lines are handed to a background thread via a bounded queue
+ * so callers never wait for I/O. If the queue is full the line is dropped and counted.
+ *
+ * When the compressed file reaches its size cap it is closed and rotated: file F.gz
+ * becomes F.1.gz, F.1.gz becomes F.2.gz and so on, with the oldest file beyond the
+ * rotation count being deleted.
+ */
+public class ResultLog extends Thread
+{
+    /**
+     * the maximum number of lines waiting to be written
+     */
+    private final static int QUEUE_SIZE = 4096;
+
+    /**
+     * size of the compression buffer
+     */
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * the current log file
+     */
+    private File file;
+
+    /**
+     * the maximum size of a compressed log file in bytes
+     */
+    private long maxBytes;
+
+    /**
+     * the number of rotated files to keep
+     */
+    private int rotationCount;
+
+    private BlockingQueue<String> queue;
+
+    private FileChannel channel;
+
+    private OutputStream out;
+
+    /**
+     * the number of lines dropped because the queue was full
+     */
+    private AtomicLong droppedCount;
+
+    /**
+     * the number of times the log has been rotated
+     */
+    private int rotations;
+
+    /**
+     * set when the writer should stop once the queue is empty
+     */
+    private volatile boolean stopped;
+
+    /**
+     * create a log and open its file
+     * @param file the log file. a .gz suffix is added if it is missing.
+     * @param maxBytes the maximum size of a compressed log file in bytes
+     * @param rotationCount the number of rotated files to keep
+     * @throws IOException if the file cannot be opened
+     */
+    public ResultLog(File file, long maxBytes, int rotationCount) throws IOException
+    {
+        super("churn result log");
+        setDaemon(true);
+        this.file = (file.getName().endsWith(".gz") ? file : new File(file.getPath() + ".gz"));
+        this.maxBytes = maxBytes;
+        this.rotationCount = rotationCount;
+        this.queue = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+        this.droppedCount = new AtomicLong();
+        this.rotations = 0;
+        this.stopped = false;
+        open();
+    }
+
+    /**
+     * queue a line for writing without waiting
+     * @param line the line
+     */
+    public void log(String line)
+    {
+        if (!queue.offer(line)) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * queue a snapshot of a histogram for writing without waiting
+     * @param title a title line written before the histogram
+     * @param histogram the histogram
+     */
+    public void log(String title, LogHistogram histogram)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream str = new PrintStream(bytes);
+        str.println(title);
+        histogram.printTo(str);
+        str.flush();
+        log(new String(bytes.toByteArray(), UTF8).trim());
+    }
+
+    public void run()
+    {
+        try {
+            while (!stopped || !queue.isEmpty()) {
+                String line = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    continue;
+                }
+                write(line);
+                // write everything else that is ready before paying for a flush
+                while ((line = queue.poll()) != null) {
+                    write(line);
+                }
+                out.flush();
+                if (channel.size() >= maxBytes) {
+                    rotate();
+                }
+            }
+            out.close();
+        } catch (InterruptedException e) {
+            // ignore
+        } catch (IOException e) {
+            System.out.println("result log " + file + " failed : " + e.getMessage());
+        }
+    }
+
+    /**
+     * write all queued lines, close the file and stop the writer thread
+     */
+    public void finish()
+    {
+        stopped = true;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    private void write(String line) throws IOException
+    {
+        out.write(line.getBytes(UTF8));
+        out.write('\n');
+    }
+
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // sync flushing makes each batch of lines readable as soon as it has been written
+        out = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE, true);
+    }
+
+    /**
+     * close the current file, shift the rotated files along and open a new file
+     */
+    private void rotate() throws IOException
+    {
+        out.close();
+        rotatedFile(rotationCount).delete();
+        for (int i = rotationCount - 1; i >= 0; i--) {
+            File from = rotatedFile(i);
+            if (from.exists() && !from.renameTo(rotatedFile(i + 1))) {
+                throw new IOException("cannot rename " + from);
+            }
+        }
+        rotations++;
+        open();
+    }
+
+    /**
+     * @param index a rotation index
+     * @return the name of the file with that index. index 0 is the current file.
+     */
+    private File rotatedFile(int index)
+    {
+        if (index == 0) {
+            return file;
+        }
+        String path = file.getPath();
+        return new File(path.substring(0, path.length() - ".gz".length()) + "." + index + ".gz");
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    public int getRotations()
+    {
+        return rotations;
+    }
+}
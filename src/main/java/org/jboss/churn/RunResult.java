@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A RunResult summarises the outcome of a single churn run i.e. the accumulated slice
+ * histogram plus the totals needed to compare one run against another. TestRunner prints
+ * it as a single line of output starting with {@link #PREFIX} followed by a base64 encoded
+ * binary form of the result. That allows results to be picked out of the program output
+ * by a parent process or recovered later from a saved output log.
+ */
+public class RunResult
+{
+    /**
+     * the prefix identifying an encoded result line in the program output
+     */
+    public final static String PREFIX = "Churn result ";
+
+    /**
+     * the version of the encoded form. bump this when adding fields
+     */
+    private final static int VERSION = 2;
+
+    /**
+     * the percentiles listed in a summary
+     */
+    public final static double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+
+    private String label;
+    private int threadCount;
+    private long elapsedMillis;
+    private long iterations;
+    private long allocatedBytes;
+    private long itemsProcessed;
+    private long gcMillis;
+    private LogHistogram histogram;
+
+    public RunResult(String label, int threadCount, long elapsedMillis, long iterations, long allocatedBytes,
+                     long itemsProcessed, long gcMillis, LogHistogram histogram)
+    {
+        this.label = label;
+        this.threadCount = threadCount;
+        this.elapsedMillis = elapsedMillis;
+        this.iterations = iterations;
+        this.allocatedBytes = allocatedBytes;
+        this.itemsProcessed = itemsProcessed;
+        this.gcMillis = gcMillis;
+        this.histogram = histogram;
+    }
+
+    public String getLabel()
+    {
+        return label;
+    }
+
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    public long getIterations()
+    {
+        return iterations;
+    }
+
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    public long getItemsProcessed()
+    {
+        return itemsProcessed;
+    }
+
+    public long getGCMillis()
+    {
+        return gcMillis;
+    }
+
+    public LogHistogram getHistogram()
+    {
+        return histogram;
+    }
+
+    /**
+     * @return the number of work items processed per second summed over all threads
+     */
+    public double getItemRate()
+    {
+        if (elapsedMillis <= 0) {
+            return 0;
+        }
+        return itemsProcessed / (elapsedMillis / 1000.0);
+    }
+
+    /**
+     * @return the percentage of the elapsed time spent in GC
+     */
+    public double getGCOverhead()
+    {
+        return Monitor.gcOverhead(gcMillis, elapsedMillis);
+    }
+
+    /**
+     * @return the allocation rate of this run in MBs per second
+     */
+    public double getAllocationRate()
+    {
+        if (elapsedMillis <= 0) {
+            return 0;
+        }
+        return (allocatedBytes / (1024.0 * 1024.0)) / (elapsedMillis / 1000.0);
+    }
+
+    /**
+     * @return the iteration rate of this run summed over all threads in iterations per second
+     */
+    public double getIterationRate()
+    {
+        if (elapsedMillis <= 0) {
+            return 0;
+        }
+        return iterations / (elapsedMillis / 1000.0);
+    }
+
+    /**
+     * merge the totals and histogram of another run of the same configuration into this one.
+     * elapsed time is summed along with the other totals so that rates are averaged across runs.
+     * @param other the result to include in this one
+     */
+    public void accumulate(RunResult other)
+    {
+        histogram.accumulate(other.histogram);
+        elapsedMillis += other.elapsedMillis;
+        iterations += other.iterations;
+        allocatedBytes += other.allocatedBytes;
+        itemsProcessed += other.itemsProcessed;
+        gcMillis += other.gcMillis;
+    }
+
+    /**
+     * merge the totals and histogram of a run which ran at the same time as this one. elapsed
+     * time is the longer of the two i.e. the wall time so that rates are aggregated across the
+     * runs. the GC overhead becomes the GC time of all the runs per unit of wall time so it can
+     * exceed 100% when several JVMs collect at once.
+     * @param other the result to include in this one
+     */
+    public void accumulateConcurrent(RunResult other)
+    {
+        histogram.accumulate(other.histogram);
+        elapsedMillis = Math.max(elapsedMillis, other.elapsedMillis);
+        iterations += other.iterations;
+        allocatedBytes += other.allocatedBytes;
+        itemsProcessed += other.itemsProcessed;
+        gcMillis += other.gcMillis;
+    }
+
+    /**
+     * @return this result encoded as a line of output including the {@link #PREFIX}
+     */
+    public String encode()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            out.writeUTF(label);
+            out.writeInt(threadCount);
+            out.writeLong(elapsedMillis);
+            out.writeLong(iterations);
+            out.writeLong(allocatedBytes);
+            out.writeLong(itemsProcessed);
+            out.writeLong(gcMillis);
+            histogram.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            // cannot happen when writing to a byte array
+            throw new Error(e);
+        }
+        return PREFIX + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * decode a result from a line of output
+     * @param line a line of output starting with {@link #PREFIX}
+     * @return the decoded result
+     * @throws IOException if the line does not contain a valid result
+     */
+    public static RunResult decode(String line) throws IOException
+    {
+        if (!line.startsWith(PREFIX)) {
+            throw new IOException("not a churn result line");
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(line.substring(PREFIX.length()).trim());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid churn result encoding", e);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("unsupported churn result version " + version);
+        }
+        String label = in.readUTF();
+        int threadCount = in.readInt();
+        long elapsedMillis = in.readLong();
+        long iterations = in.readLong();
+        long allocatedBytes = in.readLong();
+        long itemsProcessed = 0;
+        long gcMillis = 0;
+        if (version >= 2) {
+            itemsProcessed = in.readLong();
+            gcMillis = in.readLong();
+        }
+        LogHistogram histogram = LogHistogram.readFrom(in);
+        return new RunResult(label, threadCount, elapsedMillis, iterations, allocatedBytes, itemsProcessed, gcMillis, histogram);
+    }
+
+    /**
+     * read all results found in an output log, which may be gzipped
+     * @param file the output log
+     * @return the results in the order they were found
+     * @throws IOException if the file cannot be read or contains an invalid result line
+     */
+    public static List<RunResult> readAll(File file) throws IOException
+    {
+        List<RunResult> results = new ArrayList<RunResult>();
+        BufferedReader reader;
+        if (file.getName().endsWith(".gz")) {
+            reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+        } else {
+            reader = new BufferedReader(new FileReader(file));
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PREFIX)) {
+                    results.add(decode(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+
+    /**
+     * print a header line for a table of result summaries
+     * @param str the stream to print to
+     */
+    public static void printSummaryHeader(PrintStream str)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-20s %10s %12s %12s %10s %10s %6s", "label", "elapsed(s)", "iterations/s", "items/s", "alloc(MB)", "MB/s", "GC%"));
+        for (double percentile : PERCENTILES) {
+            builder.append(String.format(" %8s", percentileName(percentile)));
+        }
+        str.println(builder.toString());
+    }
+
+    /**
+     * print a single line summary of this result matching {@link #printSummaryHeader}
+     * @param str the stream to print to
+     */
+    public void printSummary(PrintStream str)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-20s %10.1f %12.2f %12.0f %10d %10.1f %6.1f", label, elapsedMillis / 1000.0, getIterationRate(),
+                getItemRate(), allocatedBytes / (1024 * 1024), getAllocationRate(), getGCOverhead()));
+        for (double percentile : PERCENTILES) {
+            builder.append(String.format(" %8d", histogram.getPercentile(percentile)));
+        }
+        str.println(builder.toString());
+    }
+
+    /**
+     * @param percentile a percentile
+     * @return a short column name for the percentile
+     */
+    public static String percentileName(double percentile)
+    {
+        if (percentile == 100) {
+            return "max";
+        }
+        if (percentile == Math.floor(percentile)) {
+            return "p" + (long)percentile;
+        }
+        return "p" + percentile;
+    }
+}
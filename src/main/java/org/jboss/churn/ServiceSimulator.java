@@ -0,0 +1,272 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ServiceSimulator is a load generator thread which submits requests at a fixed rate to
+ * a pool of service threads, either a ThreadPoolExecutor or, on JDKs which have them, a
+ * virtual thread per request. Each request builds a response from a chain of new
+ * WorkItems, computes over it and links it to items looked up in the workers' long term
+ * maps, so requests allocate and read shared old data while the workers churn the heap.
+ *
+ * The load is an open model: every request has an intended start time fixed by the rate
+ * and its latency is measured from that time to its completion. When the generator or the
+ * pool is held up, by a GC pause for example, the requests which should have been sent
+ * in the meantime are sent as soon as possible and the delay counts towards their latency
+ * rather than being omitted. The latency, including queueing, and the service time of
+ * each request are recorded in microsecond histograms.
+ */
+public class ServiceSimulator extends Thread
+{
+    /**
+     * the number of items in each response
+     */
+    private final static int RESPONSE_ITEMS = 8;
+
+    /**
+     * the number of 32 byte blocks in each response item
+     */
+    private final static int RESPONSE_BLOCKS = 4;
+
+    /**
+     * the number of computations performed on each response item
+     */
+    private final static int RESPONSE_COMPUTATIONS = 32;
+
+    /**
+     * the number of long term map lookups made by each request
+     */
+    private final static int LOOKUPS = 4;
+
+    /**
+     * the workers whose long term maps are read
+     */
+    private TestRunner[] runners;
+
+    /**
+     * the number of items owned by each worker
+     */
+    private int itemCount;
+
+    /**
+     * the interval between requests in nanoseconds
+     */
+    private long intervalNanos;
+
+    /**
+     * the size of the thread pool or 0 when using virtual threads
+     */
+    private int poolSize;
+
+    private ExecutorService executor;
+
+    private long submittedCount;
+
+    private AtomicLong completedCount;
+
+    private AtomicLong hitCount;
+
+    /**
+     * histograms of request latency including queueing and of service time in usecs. they are
+     * updated by the service threads so access to them is synchronized on the latency histogram
+     */
+    private LogHistogram latencyHistogram;
+    private LogHistogram serviceHistogram;
+
+    private long maxLatencyNanos;
+
+    /**
+     * set when the generator should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * create a simulator
+     * @param runners the workers whose long term maps requests read
+     * @param itemCount the number of items owned by each worker
+     * @param requestsPerSec the request rate
+     * @param poolSize the number of service threads or 0 to run each request in a virtual thread
+     * @throws UnsupportedOperationException if virtual threads are requested but unavailable
+     */
+    public ServiceSimulator(TestRunner[] runners, int itemCount, int requestsPerSec, int poolSize)
+    {
+        super("churn service load generator");
+        setDaemon(true);
+        this.runners = runners;
+        this.itemCount = itemCount;
+        this.intervalNanos = 1000000000L / requestsPerSec;
+        this.poolSize = poolSize;
+        if (poolSize > 0) {
+            this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+        } else {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                this.executor = (ExecutorService)factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("virtual threads are not supported by this JVM");
+            }
+        }
+        this.submittedCount = 0;
+        this.completedCount = new AtomicLong();
+        this.hitCount = new AtomicLong();
+        this.latencyHistogram = new LogHistogram(24, true, 10);
+        this.serviceHistogram = new LogHistogram(24, true, 10);
+        this.maxLatencyNanos = 0;
+        this.stopped = false;
+    }
+
+    public void run()
+    {
+        long intended = System.nanoTime();
+        while (!stopped) {
+            long now = System.nanoTime();
+            if (intended > now) {
+                LockSupport.parkNanos(intended - now);
+                continue;
+            }
+            executor.execute(new Request(intended));
+            submittedCount++;
+            intended += intervalNanos;
+        }
+    }
+
+    /**
+     * a request which records its latency from its intended start time
+     */
+    private class Request implements Runnable
+    {
+        private long intended;
+
+        Request(long intended)
+        {
+            this.intended = intended;
+        }
+
+        public void run()
+        {
+            long start = System.nanoTime();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            // build the response as a chain of new items
+            WorkItem response = new WorkItem("response", RESPONSE_BLOCKS, 32);
+            for (int i = 1; i < RESPONSE_ITEMS; i++) {
+                WorkItem item = new WorkItem("response", RESPONSE_BLOCKS, 32);
+                item.refer(response);
+                response = item;
+            }
+            WorkItem next = response;
+            for (int i = 0; i < RESPONSE_ITEMS; i++) {
+                next.doWork(i, RESPONSE_COMPUTATIONS);
+                next = next.getReference();
+            }
+            // look up shared items and link the tail of the response to the last one found
+            int hits = 0;
+            for (int i = 0; i < LOOKUPS; i++) {
+                TestRunner runner = runners[random.nextInt(runners.length)];
+                WorkItem item = runner.lookupLongTerm("item " + (runner.getItemStart() + random.nextInt(itemCount)));
+                if (item != null) {
+                    hits++;
+                    next.refer(item);
+                }
+            }
+            long end = System.nanoTime();
+            hitCount.addAndGet(hits);
+            completedCount.incrementAndGet();
+            synchronized (latencyHistogram) {
+                long latency = end - intended;
+                if (latency > maxLatencyNanos) {
+                    maxLatencyNanos = latency;
+                }
+                latencyHistogram.count(latency / 1000);
+                serviceHistogram.count((end - start) / 1000);
+            }
+        }
+    }
+
+    /**
+     * stop submitting requests and wait for those already submitted to complete
+     */
+    public void finish()
+    {
+        stopped = true;
+        try {
+            join();
+            executor.shutdown();
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.out.println("service : requests still running after 10 seconds");
+            }
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    public long getSubmittedCount()
+    {
+        return submittedCount;
+    }
+
+    public long getCompletedCount()
+    {
+        return completedCount.get();
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMaxLatencyNanos()
+    {
+        synchronized (latencyHistogram) {
+            return maxLatencyNanos;
+        }
+    }
+
+    public LogHistogram getLatencyHistogram()
+    {
+        return latencyHistogram;
+    }
+
+    public LogHistogram getServiceHistogram()
+    {
+        return serviceHistogram;
+    }
+
+    public String getPoolName()
+    {
+        return (poolSize > 0 ? poolSize + " threads" : "virtual threads");
+    }
+}
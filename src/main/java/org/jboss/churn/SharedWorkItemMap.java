@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A SharedWorkItemMap is a single long term map shared by all worker threads, used in
+ * place of the per thread long term maps when running with -sharedLongTerm. Workers
+ * promote items into it and purge their own items from it so the long lived data set
+ * contains references between items created by different threads and the map itself
+ * becomes a point of contention.
+ *
+ * Two implementations are provided. The concurrent variant wraps a single WorkItemMap
+ * i.e. a ConcurrentHashMap. The striped variant divides the keys across a set of plain
+ * hash maps each guarded by a lock and counts how often a thread finds the lock it needs
+ * already held.
+ */
+public abstract class SharedWorkItemMap
+{
+    /**
+     * look up an item
+     * @param name the item name
+     * @return the item or null if it is not present
+     */
+    public abstract WorkItem get(String name);
+
+    /**
+     * add or replace an item
+     * @param name the item name
+     * @param item the item
+     */
+    public abstract void put(String name, WorkItem item);
+
+    /**
+     * remove an item
+     * @param name the item name
+     */
+    public abstract void remove(String name);
+
+    /**
+     * @return the number of items in the map
+     */
+    public abstract int size();
+
+    /**
+     * pass every item in the map to a consumer. the map may be updated concurrently so items
+     * added or removed during the call may or may not be seen.
+     * @param consumer the consumer
+     */
+    public abstract void forEachItem(Consumer<WorkItem> consumer);
+
+    /**
+     * @return the number of times a thread found the lock it needed already held or -1 if the
+     * implementation cannot tell
+     */
+    public abstract long getContentionCount();
+
+    /**
+     * @return a name describing the implementation
+     */
+    public abstract String getName();
+
+    /**
+     * remove a range of items, normally all those owned by a single worker
+     * @param start the index of the first item
+     * @param count the number of items
+     */
+    public void purge(int start, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            remove("item " + (start + i));
+        }
+    }
+
+    /**
+     * create a map which wraps a single ConcurrentHashMap
+     * @return the map
+     */
+    public static SharedWorkItemMap createConcurrent()
+    {
+        return new ConcurrentSharedMap();
+    }
+
+    /**
+     * create a map which divides keys across lock guarded stripes
+     * @param stripeCount the number of stripes which must be a power of 2
+     * @return the map
+     */
+    public static SharedWorkItemMap createStriped(int stripeCount)
+    {
+        return new StripedSharedMap(stripeCount);
+    }
+
+    private static class ConcurrentSharedMap extends SharedWorkItemMap
+    {
+        private WorkItemMap map = new WorkItemMap();
+
+        public WorkItem get(String name)
+        {
+            return map.get(name);
+        }
+
+        public void put(String name, WorkItem item)
+        {
+            map.put(name, item);
+        }
+
+        public void remove(String name)
+        {
+            map.remove(name);
+        }
+
+        public int size()
+        {
+            return map.size();
+        }
+
+        public void forEachItem(Consumer<WorkItem> consumer)
+        {
+            for (WorkItem item : map.values()) {
+                consumer.accept(item);
+            }
+        }
+
+        public long getContentionCount()
+        {
+            // ConcurrentHashMap does not expose its internal contention
+            return -1;
+        }
+
+        public String getName()
+        {
+            return "chm";
+        }
+    }
+
+    private static class StripedSharedMap extends SharedWorkItemMap
+    {
+        private HashMap<String, WorkItem>[] stripes;
+        private ReentrantLock[] locks;
+        private int mask;
+        private LongAdder contentionCount;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        StripedSharedMap(int stripeCount)
+        {
+            if (stripeCount <= 0 || (stripeCount & (stripeCount - 1)) != 0) {
+                throw new IllegalArgumentException("stripe count must be a power of 2");
+            }
+            stripes = new HashMap[stripeCount];
+            locks = new ReentrantLock[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new HashMap<String, WorkItem>();
+                locks[i] = new ReentrantLock();
+            }
+            mask = stripeCount - 1;
+            contentionCount = new LongAdder();
+        }
+
+        private int stripe(String name)
+        {
+            int h = name.hashCode();
+            // spread the high bits down as the low bits of similar names differ little
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void lock(int stripe)
+        {
+            ReentrantLock lock = locks[stripe];
+            if (!lock.tryLock()) {
+                contentionCount.increment();
+                lock.lock();
+            }
+        }
+
+        public WorkItem get(String name)
+        {
+            int stripe = stripe(name);
+            lock(stripe);
+            try {
+                return stripes[stripe].get(name);
+            } finally {
+                locks[stripe].unlock();
+            }
+        }
+
+        public void put(String name, WorkItem item)
+        {
+            int stripe = stripe(name);
+            lock(stripe);
+            try {
+                stripes[stripe].put(name, item);
+            } finally {
+                locks[stripe].unlock();
+            }
+        }
+
+        public void remove(String name)
+        {
+            int stripe = stripe(name);
+            lock(stripe);
+            try {
+                stripes[stripe].remove(name);
+            } finally {
+                locks[stripe].unlock();
+            }
+        }
+
+        public int size()
+        {
+            int size = 0;
+            for (int i = 0; i < stripes.length; i++) {
+                lock(i);
+                try {
+                    size += stripes[i].size();
+                } finally {
+                    locks[i].unlock();
+                }
+            }
+            return size;
+        }
+
+        public void forEachItem(Consumer<WorkItem> consumer)
+        {
+            // copy each stripe so that the consumer does not run with a lock held
+            for (int i = 0; i < stripes.length; i++) {
+                ArrayList<WorkItem> items;
+                lock(i);
+                try {
+                    items = new ArrayList<WorkItem>(stripes[i].values());
+                } finally {
+                    locks[i].unlock();
+                }
+                for (WorkItem item : items) {
+                    consumer.accept(item);
+                }
+            }
+        }
+
+        public long getContentionCount()
+        {
+            return contentionCount.sum();
+        }
+
+        public String getName()
+        {
+            return "striped[" + stripes.length + "]";
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.util.Arrays;
+
+/**
+ * A SliceTimeline records the start and end times of a worker thread's most recent slices
+ * in a pair of primitive ring buffers, so recording a slice does not allocate. At the end of
+ * a run the timeline is turned into a list of pauses from which a minimum mutator
+ * utilization (MMU) curve can be computed.
+ *
+ * A slice normally takes about the same time as the median slice. Any time a slice takes
+ * beyond the median is treated as a pause at the end of the slice during which the thread
+ * made no progress. Gaps between slices, when the thread yields or sleeps, are not pauses.
+ *
+ * The MMU for a window size is the smallest fraction of any window of that size in which
+ * the thread was not paused. Unlike a histogram of slice times it shows whether pauses are
+ * clustered: ten 50 msec pauses in one second give a much lower MMU for 1 second windows
+ * than the same pauses spread over an hour.
+ */
+public class SliceTimeline
+{
+    /**
+     * the window sizes in nanoseconds for which the MMU curve is computed
+     */
+    public final static long[] WINDOWS = {
+        1000000L, 2000000L, 5000000L, 10000000L, 20000000L, 50000000L, 100000000L, 200000000L, 500000000L,
+        1000000000L, 2000000000L, 5000000000L, 10000000000L
+    };
+
+    private long[] starts;
+
+    private long[] ends;
+
+    /**
+     * the index at which the next slice is recorded
+     */
+    private int next;
+
+    /**
+     * the number of slices recorded including those which have been overwritten
+     */
+    private long recorded;
+
+    /**
+     * create a timeline
+     * @param capacity the number of slices retained
+     */
+    public SliceTimeline(int capacity)
+    {
+        this.starts = new long[capacity];
+        this.ends = new long[capacity];
+        this.next = 0;
+        this.recorded = 0;
+    }
+
+    /**
+     * record a slice, overwriting the oldest one once the buffers are full
+     * @param startNanos the time the slice started
+     * @param endNanos the time the slice ended
+     */
+    public void record(long startNanos, long endNanos)
+    {
+        starts[next] = startNanos;
+        ends[next] = endNanos;
+        next++;
+        if (next == starts.length) {
+            next = 0;
+        }
+        recorded++;
+    }
+
+    /**
+     * @return the number of slices retained
+     */
+    public int size()
+    {
+        return (int)Math.min(recorded, starts.length);
+    }
+
+    public long getRecordedCount()
+    {
+        return recorded;
+    }
+
+    /**
+     * @return the start of the oldest slice retained
+     */
+    public long getFrom()
+    {
+        return starts[index(0)];
+    }
+
+    /**
+     * @return the end of the newest slice retained
+     */
+    public long getTo()
+    {
+        return ends[index(size() - 1)];
+    }
+
+    /**
+     * @return the buffer index of the i'th oldest slice retained
+     */
+    private int index(int i)
+    {
+        if (recorded <= starts.length) {
+            return i;
+        }
+        return (next + i) % starts.length;
+    }
+
+    /**
+     * derive the pauses from the retained slices
+     * @return an array holding the pause start times followed by an array holding the pause
+     * end times, both in time order
+     */
+    public long[][] pauses()
+    {
+        int size = size();
+        long[] durations = new long[size];
+        for (int i = 0; i < size; i++) {
+            int idx = index(i);
+            durations[i] = ends[idx] - starts[idx];
+        }
+        long[] sorted = durations.clone();
+        Arrays.sort(sorted);
+        long median = (size > 0 ? sorted[size / 2] : 0);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (durations[i] > median) {
+                count++;
+            }
+        }
+        long[] pauseStarts = new long[count];
+        long[] pauseEnds = new long[count];
+        count = 0;
+        for (int i = 0; i < size; i++) {
+            if (durations[i] > median) {
+                long end = ends[index(i)];
+                pauseStarts[count] = end - (durations[i] - median);
+                pauseEnds[count] = end;
+                count++;
+            }
+        }
+        return new long[][] { pauseStarts, pauseEnds };
+    }
+
+    /**
+     * compute the MMU for each of a set of window sizes
+     * @param pauseStarts the pause start times in time order
+     * @param pauseEnds the pause end times in time order, none of the pauses overlapping
+     * @param from the start of the period covered
+     * @param to the end of the period covered
+     * @param windows the window sizes
+     * @param worstStarts filled with the start time of the window with the lowest utilization
+     * for each window size
+     * @return the MMU for each window size or -1 for windows larger than the period
+     */
+    public static double[] mmu(long[] pauseStarts, long[] pauseEnds, long from, long to, long[] windows, long[] worstStarts)
+    {
+        int count = pauseStarts.length;
+        // prefix[k] is the total length of the first k pauses
+        long[] prefix = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            prefix[i + 1] = prefix[i] + (pauseEnds[i] - pauseStarts[i]);
+        }
+        double[] result = new double[windows.length];
+        for (int w = 0; w < windows.length; w++) {
+            long window = windows[w];
+            if (window > to - from) {
+                result[w] = -1;
+                worstStarts[w] = from;
+                continue;
+            }
+            // the most paused window starts at a pause start or ends at a pause end
+            long maxPaused = pausedIn(pauseStarts, pauseEnds, prefix, from, from + window);
+            long worst = from;
+            for (int i = 0; i < count; i++) {
+                long start = Math.min(Math.max(pauseStarts[i], from), to - window);
+                long paused = pausedIn(pauseStarts, pauseEnds, prefix, start, start + window);
+                if (paused > maxPaused) {
+                    maxPaused = paused;
+                    worst = start;
+                }
+                start = Math.min(Math.max(pauseEnds[i] - window, from), to - window);
+                paused = pausedIn(pauseStarts, pauseEnds, prefix, start, start + window);
+                if (paused > maxPaused) {
+                    maxPaused = paused;
+                    worst = start;
+                }
+            }
+            result[w] = 1.0 - ((double)maxPaused / window);
+            worstStarts[w] = worst;
+        }
+        return result;
+    }
+
+    /**
+     * @return the total length of pause time falling between start and end
+     */
+    private static long pausedIn(long[] pauseStarts, long[] pauseEnds, long[] prefix, long start, long end)
+    {
+        return pausedBefore(pauseStarts, pauseEnds, prefix, end) - pausedBefore(pauseStarts, pauseEnds, prefix, start);
+    }
+
+    /**
+     * @return the total length of pause time before time t
+     */
+    private static long pausedBefore(long[] pauseStarts, long[] pauseEnds, long[] prefix, long t)
+    {
+        // find the first pause which ends after t
+        int low = 0;
+        int high = pauseEnds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pauseEnds[mid] <= t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        long paused = prefix[low];
+        if (low < pauseStarts.length && pauseStarts[low] < t) {
+            paused += t - pauseStarts[low];
+        }
+        return paused;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+
+/**
+ * A SteadyStateDetector is fed the successive slice timings of a worker thread
+ * while it is warming up and decides when the thread has reached a steady state.
+ * Until then timings are recorded in a separate warmup histogram so that JIT
+ * compilation and the initial heap fill do not pollute the main results.
+ *
+ * Two detection modes are supported. In median mode the slice timings are
+ * grouped into windows and the thread is deemed steady once the median of
+ * several successive windows stays within a small tolerance. In heap mode
+ * the heap occupancy left behind after each GC is compared at every window
+ * boundary and the thread is deemed steady once several successive GCs leave
+ * behind a similar amount of live data.
+ */
+public class SteadyStateDetector
+{
+    /**
+     * detect steady state by looking for a stable median slice time
+     */
+    public final static int MODE_MEDIAN = 0;
+
+    /**
+     * detect steady state by looking for a stable post-GC heap occupancy
+     */
+    public final static int MODE_HEAP = 1;
+
+    /**
+     * number of slice timings grouped into a window
+     */
+    final static int WINDOW_SIZE = 50;
+
+    /**
+     * number of successive stable windows (or GCs) needed before we declare a steady state
+     */
+    final static int STABLE_COUNT = 3;
+
+    /**
+     * how far in percent a window median or post-GC occupancy may drift from the previous one
+     * and still be considered stable
+     */
+    final static int TOLERANCE_PERCENT = 10;
+
+    private int mode;
+
+    /**
+     * slice timings for the current window
+     */
+    private long[] window;
+
+    /**
+     * number of timings in the current window
+     */
+    private int windowCount;
+
+    /**
+     * median of the previous window or post-GC heap occupancy at the previous GC or -1 if
+     * no such value has been computed yet
+     */
+    private long previous;
+
+    /**
+     * number of successive stable windows or GCs seen so far
+     */
+    private int stableCount;
+
+    /**
+     * total GC count seen at the last heap check
+     */
+    private long lastGCCount;
+
+    public SteadyStateDetector(int mode)
+    {
+        if (mode != MODE_MEDIAN && mode != MODE_HEAP) {
+            throw new IllegalArgumentException("invalid steady state mode " + mode);
+        }
+        this.mode = mode;
+        this.window = new long[WINDOW_SIZE];
+        this.windowCount = 0;
+        this.previous = -1;
+        this.stableCount = 0;
+        this.lastGCCount = (mode == MODE_HEAP ? totalGCCount() : 0);
+    }
+
+    /**
+     * feed a slice timing to the detector
+     * @param value the elapsed time for the slice
+     * @return true if a steady state has been reached otherwise false
+     */
+    public boolean sample(long value)
+    {
+        window[windowCount++] = value;
+        if (windowCount < WINDOW_SIZE) {
+            return false;
+        }
+        windowCount = 0;
+        if (mode == MODE_MEDIAN) {
+            Arrays.sort(window);
+            return check(window[WINDOW_SIZE / 2]);
+        } else {
+            long gcCount = totalGCCount();
+            if (gcCount == lastGCCount) {
+                // nothing to compare until another GC happens
+                return false;
+            }
+            lastGCCount = gcCount;
+            return check(postGCHeapUsage());
+        }
+    }
+
+    /**
+     * compare a newly computed value against the previous one and update the stable count
+     * @param current the new window median or post-GC occupancy
+     * @return true if enough successive values have been stable
+     */
+    private boolean check(long current)
+    {
+        if (previous >= 0) {
+            // allow a slack of 1 so that millisecond rounding does not count as drift
+            long slack = Math.max(1, (previous * TOLERANCE_PERCENT) / 100);
+            if (Math.abs(current - previous) <= slack) {
+                stableCount++;
+            } else {
+                stableCount = 0;
+            }
+        }
+        previous = current;
+        return stableCount >= STABLE_COUNT;
+    }
+
+    public String getModeName()
+    {
+        return (mode == MODE_MEDIAN ? "median" : "heap");
+    }
+
+    private static long totalGCCount()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long count = gcBean.getCollectionCount();
+            if (count > 0) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    private static long postGCHeapUsage()
+    {
+        long total = 0;
+        for (MemoryPoolMXBean poolBean : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (poolBean.getType() == MemoryType.HEAP) {
+                MemoryUsage usage = poolBean.getCollectionUsage();
+                if (usage != null) {
+                    total += usage.getUsed();
+                }
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.util.Random;
+
+/**
+ * A TestReader is a thread which continuously looks up random items in the long term maps
+ * of all the TestRunner threads (or in the shared long term map if there is one) and walks
+ * the chain of items each one references. This simulates threads reading a shared cache
+ * and exercises GC load barriers and reference reads across objects owned by other
+ * threads. The time taken for each slice of reads is recorded in microseconds in a
+ * histogram of its own so that barrier overheads show up separately from the worker slice
+ * timings.
+ */
+public class TestReader extends Thread
+{
+    /**
+     * the maximum number of links followed when walking a chain. chains are never cyclic
+     * but this guards against walking forever should that ever change.
+     */
+    final private static int MAX_CHAIN_LENGTH = 1000;
+
+    /**
+     * the workers whose long term maps are read
+     */
+    private TestRunner[] runners;
+
+    /**
+     * the number of items owned by each worker
+     */
+    private int itemCount;
+
+    /**
+     * the number of reads timed as a single slice
+     */
+    private int sliceCount;
+
+    /**
+     * a histogram used to collect timings in microseconds for each successive slice of reads
+     */
+    private LogHistogram readHistogram;
+
+    /**
+     * count of the number of lookups performed by this reader
+     */
+    private long readCount;
+
+    /**
+     * count of the number of lookups which found an item
+     */
+    private long hitCount;
+
+    /**
+     * sum of the bytes read from the items visited. this is only here to stop the JIT
+     * optimizing away the reads.
+     */
+    private long checksum;
+
+    /**
+     * set when the reader should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * identifier for the reader thread
+     */
+    private int id;
+
+    public TestReader(int id, TestRunner[] runners, int itemCount, int sliceCount)
+    {
+        this.id = id;
+        this.runners = runners;
+        this.itemCount = itemCount;
+        this.sliceCount = sliceCount;
+        // microsecond timings need more buckets than msec timings
+        this.readHistogram = new LogHistogram(24, true, 10);
+        this.readCount = 0;
+        this.hitCount = 0;
+        this.checksum = 0;
+        this.stopped = false;
+    }
+
+    public void run()
+    {
+        System.out.println("reader " + id + " : start");
+        Random random = new Random(-1 - id);
+        while (!stopped) {
+            long start = System.nanoTime();
+            for (int i = 0; i < sliceCount; i++) {
+                TestRunner runner = runners[random.nextInt(runners.length)];
+                int idx = runner.getItemStart() + random.nextInt(itemCount);
+                WorkItem item = runner.lookupLongTerm("item " + idx);
+                if (item != null) {
+                    hitCount++;
+                    checksum += walk(item);
+                }
+            }
+            readHistogram.count((System.nanoTime() - start) / 1000);
+            readCount += sliceCount;
+        }
+        System.out.println("reader " + id + " : end");
+    }
+
+    /**
+     * read the first byte of each data block of every item in a chain
+     * @param item the item at the head of the chain
+     * @return the sum of the bytes read
+     */
+    private static long walk(WorkItem item)
+    {
+        long sum = 0;
+        for (int length = 0; length < MAX_CHAIN_LENGTH; length++) {
+            for (int i = 0; i < item.getBlockCount(); i++) {
+                byte[] block = item.getData(i);
+                if (block.length > 0) {
+                    sum += block[0];
+                }
+            }
+            WorkItem next = item.getReference();
+            if (next == item) {
+                break;
+            }
+            item = next;
+        }
+        return sum;
+    }
+
+    /**
+     * ask the reader to stop at the end of its current slice
+     */
+    public void finish()
+    {
+        stopped = true;
+    }
+
+    public LogHistogram getHistogram()
+    {
+        return readHistogram;
+    }
+
+    public long getReadCount()
+    {
+        return readCount;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public long getChecksum()
+    {
+        return checksum;
+    }
+}
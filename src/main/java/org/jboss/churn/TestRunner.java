@@ -24,10 +24,22 @@
 
 package org.jboss.churn;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import javax.management.JMException;
 
 /**
  * The Churn test runner is a main class which can be used to stress the memory
@@ -40,9 +52,10 @@ import java.util.Random;
 public class TestRunner extends Thread
 {
     /**
-     * a long living collection of work items which is slowly updated with new items
+     * a long living collection of work items which is slowly updated with new items. this is
+     * volatile because reader threads look up items in it and it is replaced when purged.
      */
-    private WorkItemMap longTermMap;
+    private volatile WorkItemMap longTermMap;
 
     /**
      * a per thread collection of work items which is regularly updated with new items
@@ -55,11 +68,83 @@ public class TestRunner extends Thread
      */
     private LogHistogram logHistogram;
 
+    /**
+     * a histogram used to collect slice timings while the thread is still warming up. timings
+     * only get counted in logHistogram once a steady state has been detected.
+     */
+    private LogHistogram warmupHistogram;
+
+    /**
+     * time in msecs from the start of the iterate phase until a steady state was detected or the
+     * warmup time ran out or -1 if the thread never left the warmup phase
+     */
+    private long warmupMSecs;
+
+    /**
+     * time in msecs this thread took to create its initial items and to link them and the
+     * time at which it started iterating
+     */
+    private long populateMSecs;
+    private long linkMSecs;
+    private long iterateStartMSecs;
+
+    /**
+     * a histogram used to collect timings in nanoseconds for puts into the shared long term map.
+     * only used when running with a shared long term map.
+     */
+    private LogHistogram putHistogram;
+
     /**
      * count of the number of bytes allocated by this thread when processing work items
      */
     private long allocationCount;
 
+    /**
+     * count of the number of map passes completed by this thread
+     */
+    private long iterations;
+
+    /**
+     * count of the number of work items processed by this thread
+     */
+    private long itemsProcessed;
+
+    /**
+     * count of the number of items promoted to the long term map and of the number of times the
+     * long term map has been purged by this thread
+     */
+    private long promotionCount;
+    private long purgeCount;
+
+    /**
+     * the total in msecs of the slice times counted in logHistogram
+     */
+    private long sliceMSecs;
+
+    /**
+     * copies of itemsProcessed and allocationCount published at the end of each slice for
+     * the monitor thread to read. this avoids the workers paying for a volatile write per item.
+     */
+    private volatile long publishedItems;
+    private volatile long publishedAllocation;
+    private volatile long publishedPromotions;
+    private volatile long publishedPurges;
+    private volatile long publishedSliceMSecs;
+
+    /**
+     * histograms of the safepoint synchronization time and total safepoint time in usecs which
+     * overlapped each slow slice. only used when measuring safepoints.
+     */
+    private LogHistogram slowSyncHistogram;
+    private LogHistogram slowSafepointHistogram;
+
+    /**
+     * count of the slices which took at least slowSliceMSecs and of those which overlapped
+     * one or more safepoints
+     */
+    private long slowSlices;
+    private long slowSafepointSlices;
+
     /**
      * cost in bytes for allocating a new work item map
      */
@@ -80,26 +165,70 @@ public class TestRunner extends Thread
      */
     private int itemStart;
 
+    /**
+     * the source of this thread's decisions, normally random but possibly recorded or replayed
+     */
+    private Workload workload;
+
+    /**
+     * extra allocations made for each item to stress TLABs or null if there are none
+     */
+    private TlabScenario tlabScenario;
+
+    /**
+     * this thread's copies of the parameters which a ChurnControl may change during the run.
+     * they are refreshed at a slice boundary whenever the control version differs from
+     * controlVersion
+     */
+    private int computations;
+    private int slices;
+    private int yieldMSecs;
+    private int blocks;
+    private int activeThreads;
+    private int controlVersion;
+
+    /**
+     * a record of this thread's most recent slices or null if none is kept
+     */
+    private SliceTimeline timeline;
+
+    /**
+     * the items this thread has promoted to the long term map indexed by item offset, used to
+     * pick long lived items whose references are rewritten, or null if there is no mutation
+     */
+    private WorkItem[] longTermItems;
+
+    /**
+     * picks the items and slots to mutate. it is separate from the workload so that mutation
+     * does not change the workload's decisions
+     */
+    private Random mutationRandom;
+
+    /**
+     * count of the references rewritten in long lived items
+     */
+    private long mutationCount;
+
     /**
      * the odds that a thread will trash (nullify) all the long term map entries when it
      * finsihes an iteration over its subset of the short term/long term table
      */
-    final private static int DUMP_LONG_TERM_ODDS = 100;
+    final static int DUMP_LONG_TERM_ODDS = 100;
 
     /**
      * the odds that a work item will be promoted to the long term map rather than added to the short term map
      */
-    final private static int PROMOTION_ODDS = 10;
+    final static int PROMOTION_ODDS = 10;
 
     /**
      * the odds that a work item will be linked to another item rather than to itself
      */
-    final private static int LINK_ODDS = 3;
+    final static int LINK_ODDS = 3;
 
     /**
      * the odds that a work item will hold on to a mega large object (1Mb)
      */
-    final private static int MEGA_LARGE_OBJECT_ODDS = 1000;
+    final static int MEGA_LARGE_OBJECT_ODDS = 1000;
 
     /**
      * the odds that a work item will hold on to a very large object 32Kb , 2 medium objects (2 * 1Kb) or
@@ -107,7 +236,7 @@ public class TestRunner extends Thread
      * odds for a lareg object is 1 in LARGE_OBJECT_ODDS
      * odds for a medium object is 2 in LARGE_OBJECT_ODDS
      */
-    final private static int LARGE_OBJECT_ODDS = 200;
+    final static int LARGE_OBJECT_ODDS = 200;
 
     /**
      * number of blocks to allocate per work item. can be reset on command line using -blocks
@@ -147,6 +276,12 @@ public class TestRunner extends Thread
      */
     private static int computationCount = 32;
 
+    /**
+     * the kernel used to perform the computations on each newly allocated work item. can be
+     * set on the commandline using -kernel xor|stream|strided|random|hash
+     */
+    private static int kernel = WorkItem.KERNEL_XOR;
+
     /**
      * number of allocations which are performed before the clock time is sampled to measure
      * the elapsed time for a slice of work. By configuring a suitable value for this parameter
@@ -165,6 +300,234 @@ public class TestRunner extends Thread
      */
     private static int yieldMSecCount = -1;
 
+    /**
+     * maximum time in seconds a thread may spend in its warmup phase before its slice timings
+     * are recorded in the main histogram. zero means no warmup phase. can be set on the
+     * commandline using -warmup
+     */
+    private static int warmupSecs = 0;
+
+    /**
+     * how a thread detects that it has left the warmup phase. can be set on the commandline
+     * using -steadyState median|heap
+     */
+    private static int steadyStateMode = SteadyStateDetector.MODE_MEDIAN;
+
+    /**
+     * label identifying this run in the encoded result printed at the end of the run. defaults
+     * to the names of the garbage collectors in use. can be set on the commandline using -label
+     */
+    private static String label = null;
+
+    /**
+     * number of reader threads which look up items in the long term maps of the worker
+     * threads. can be set on the commandline using -readers
+     */
+    private static int readerCount = 0;
+
+    /**
+     * the long term map shared by all worker threads or null if each worker uses its own long
+     * term map. can be enabled on the commandline using -sharedLongTerm chm|striped
+     */
+    private static SharedWorkItemMap sharedLongTermMap = null;
+
+    /**
+     * timings in nanoseconds for puts made into the shared long term map by a single thread
+     * before the workers start, against which the workers' put timings are compared. a
+     * ConcurrentHashMap cannot count contention so this is the only measure of it for chm.
+     */
+    private static LogHistogram sharedPutBaseline = null;
+
+    /**
+     * number of lock stripes used by a striped shared long term map. can be set on the
+     * commandline using -stripes
+     */
+    private static int stripeCount = 64;
+
+    /**
+     * interval in seconds at which the monitor thread prints throughput figures. zero means
+     * no monitor thread. can be set on the commandline using -interval
+     */
+    private static int intervalSecs = 0;
+
+    /**
+     * an adder which counts items processed by all threads so that the monitor can report an
+     * exact live count or null if the monitor relies on the counts published per slice. can be
+     * enabled on the commandline using -adder
+     */
+    private static LongAdder itemAdder = null;
+
+    /**
+     * how the jitter probe thread waits, JitterProbe.MODE_SLEEP or JitterProbe.MODE_SPIN, or -1
+     * if there is no jitter probe. can be set on the commandline using -jitter sleep|spin
+     */
+    private static int jitterMode = -1;
+
+    /**
+     * slice time in msecs at or above which the safepoints overlapping a slice are recorded
+     * or -1 if safepoints are not measured. can be set on the commandline using -safepoints
+     */
+    private static int slowSliceMSecs = -1;
+
+    /**
+     * the JVM's own perf counters and the offsets of the safepoint count, total safepoint time
+     * and safepoint synchronization time counters. only used when measuring safepoints.
+     */
+    private static PerfCounters perfCounters = null;
+    private static int safepointsCounter;
+    private static int safepointTimeCounter;
+    private static int safepointSyncTimeCounter;
+
+    /**
+     * file to which a time series of HotSpot perf counter samples is written or null if the
+     * counters are not sampled. can be set on the commandline using -perfSample
+     */
+    private static String perfSampleFile = null;
+
+    /**
+     * number of perf counter samples taken per second. can be set on the commandline using
+     * -perfRate
+     */
+    private static int perfSampleRate = 1000;
+
+    /**
+     * file to which interval figures, histogram snapshots and the final results are streamed
+     * in compressed form or null if there is no result log. can be set on the commandline using
+     * -resultLog
+     */
+    private static String resultLogFile = null;
+
+    /**
+     * maximum size in MBs of a compressed result log file before it is rotated. can be set on
+     * the commandline using -resultLogSize
+     */
+    private static int resultLogMBs = 64;
+
+    /**
+     * number of rotated result log files to keep. can be set on the commandline using
+     * -resultLogCount
+     */
+    private static int resultLogCount = 5;
+
+    /**
+     * directory to which each thread's decisions are recorded as a trace file or null if
+     * they are not recorded. can be set on the commandline using -record
+     */
+    private static String recordDir = null;
+
+    /**
+     * directory from which each thread's decisions are replayed or null if they are made at
+     * random. can be set on the commandline using -replay
+     */
+    private static String replayDir = null;
+
+    /**
+     * an allocation profile whose size class fractions and promotion odds replace the built in
+     * odds or null if the built in odds are used. can be loaded on the commandline using -profile
+     */
+    private static AllocationProfile allocationProfile = null;
+
+    /**
+     * the TLAB stress scenario, one of the TlabScenario modes, or -1 for none. can be set on the
+     * commandline using -tlab skew|alternate|burst
+     */
+    private static int tlabMode = -1;
+
+    /**
+     * TLAB statistics gathered while running a TLAB scenario
+     */
+    private static TlabStats tlabStats = null;
+
+    /**
+     * port on which live metrics are served over HTTP or -1 if they are not served. can be set
+     * on the commandline using -metricsPort
+     */
+    private static int metricsPort = -1;
+
+    /**
+     * the JMX control through which the workload parameters can be changed while running
+     */
+    private static ChurnControl control = null;
+
+    /**
+     * number of slices kept in each thread's timeline for computing an MMU curve or 0 if no
+     * timeline is kept. can be set on the commandline using -mmu
+     */
+    private static int timelineSlices = 0;
+
+    /**
+     * true if the work maps are presized and the initial items are created in parallel. can be
+     * set on the commandline using -fastStart
+     */
+    private static boolean fastStart = false;
+
+    /**
+     * number of references rewritten in long lived items for each item processed or 0 if
+     * none are. can be set on the commandline using -mutate
+     */
+    private static int mutationRate = 0;
+
+    /**
+     * number of reference slots in each item when mutating. can be set on the commandline
+     * using -mutateSlots
+     */
+    private static int mutationSlots = 4;
+
+    /**
+     * size in bytes of the young objects stored into long lived items when mutating
+     */
+    private final static int MUTATION_BYTES = 16;
+
+    /**
+     * number of classes defined and dropped per second by a class churner thread or 0 if there
+     * is none. can be set on the commandline using -classes
+     */
+    private static int classRate = 0;
+
+    /**
+     * how the class churner defines classes, ClassChurner.MODE_LOADER or ClassChurner.MODE_HIDDEN.
+     * can be set on the commandline using -classMode loader|hidden
+     */
+    private static int classMode = ClassChurner.MODE_LOADER;
+
+    /**
+     * number of short lived threads started per second by a thread churner or 0 if there is
+     * none. can be set on the commandline using -threadChurn
+     */
+    private static int threadChurnRate = 0;
+
+    /**
+     * depth of the recursive call stack each worker builds before starting work, each frame
+     * holding a live WorkItem, or 0 for no extra frames. can be set on the commandline using
+     * -stackDepth
+     */
+    private static int stackDepth = 0;
+
+    /**
+     * number of service requests submitted per second by a load generator or 0 if there is
+     * none. can be set on the commandline using -service
+     */
+    private static int serviceRate = 0;
+
+    /**
+     * number of threads serving requests or 0 to serve each one in a virtual thread. can be
+     * set on the commandline using -servicePool P|virtual
+     */
+    private static int servicePoolSize = 8;
+
+    /**
+     * true if the exact footprint of the live set is measured at the end of the run, which
+     * needs the churn jar to be loaded as an agent. can be set on the commandline using
+     * -footprint
+     */
+    private static boolean footprint = false;
+
+    /**
+     * interval in seconds at which a census of the items the workers hold live is taken or 0
+     * if there is no census. can be set on the commandline using -census
+     */
+    private static int censusSecs = 0;
+
     /**
      * actual number of items held i.e. the same as itemTotalThousands scaled by 1000
      */
@@ -187,12 +550,67 @@ public class TestRunner extends Thread
      * <ul>
      *     <li>-blocks B -- number of 32 byte blocks allocated per work item (default 4)</li>
      *     <li>-items I -- total number of work items to retain in map / (1000) (default 4000)</li>
-     *     <li>-threads T -- number of worker threads to run in parallel (default 8)</li>
+     *     <li>-threads T -- number of worker threads to run in parallel or cpus to run one per CPU allowed by
+     *     the available processors and the cgroup CPU quota (default 8)</li>
      *     <li>-iterations N -- number of passes over map either replacing or promoting entries (defaults to 200)</li>
      *     <li>-computations C -- number of compute/write operations to each work items data block (defaults to 32)</li>
+     *     <li>-kernel K -- compute kernel applied to each new work item, one of xor (the first block), stream (all
+     *     blocks), strided or random (reads across the referenced chain) or hash (all blocks) (defaults to xor)</li>
      *     <li>-slices S -- number work item allocations/computations which constitute each timed 'task' (defaults to 100).</li>
      *     <li>-yield Y -- if 0 then a thread will yield after processing each slice if positive i twill sleep for Y msecs
      *     (defaults to -1)</li>
+     *     <li>-warmup W -- record slice timings in a separate warmup histogram until a steady state is detected
+     *     or W seconds have passed (defaults to 0 i.e. no warmup phase)</li>
+     *     <li>-steadyState median|heap -- detect a steady state from a stable median slice time or a stable
+     *     post-GC heap occupancy (defaults to median)</li>
+     *     <li>-label L -- label used to identify the run in the encoded result (defaults to the GC names)</li>
+     *     <li>-readers R -- number of reader threads looking up items in the workers' long term maps (defaults to 0)</li>
+     *     <li>-sharedLongTerm chm|striped -- replace the per thread long term maps with a single map shared by all
+     *     threads implemented as a ConcurrentHashMap or as lock guarded stripes (defaults to per thread maps)</li>
+     *     <li>-stripes K -- number of stripes in a striped shared long term map, a power of 2 (defaults to 64)</li>
+     *     <li>-interval V -- print throughput figures every V seconds while running (defaults to 0 i.e. never)</li>
+     *     <li>-adder -- count items in a shared LongAdder so the interval figures are exact rather than per slice</li>
+     *     <li>-jitter sleep|spin -- run a non-allocating thread which records how late it wakes from 1 msec sleeps
+     *     or spins in a separate histogram (defaults to no jitter probe)</li>
+     *     <li>-safepoints M -- read the HotSpot safepoint counters at each slice boundary and record the safepoint
+     *     sync and total time overlapping every slice which takes M msecs or more (defaults to not measuring)</li>
+     *     <li>-perfSample F -- sample the HotSpot GC and safepoint perf counters while running and write the
+     *     time series to CSV file F (defaults to no sampling)</li>
+     *     <li>-perfRate H -- number of perf counter samples per second (defaults to 1000)</li>
+     *     <li>-resultLog F -- stream interval figures, histogram snapshots and the final results to gzipped log
+     *     file F (defaults to no log)</li>
+     *     <li>-resultLogSize M -- size in MBs at which the compressed result log is rotated (defaults to 64)</li>
+     *     <li>-resultLogCount K -- number of rotated result log files to keep (defaults to 5)</li>
+     *     <li>-record DIR -- write a trace of each thread's decisions to a file in directory DIR</li>
+     *     <li>-replay DIR -- replay the decisions traced in directory DIR instead of making random ones. the
+     *     thread count and item total must match the recorded run and the run lasts as many iterations</li>
+     *     <li>-profile P -- pick item sizes and promotions using the allocation profile saved in properties file P,
+     *     normally one imported from a JFR recording using ProfileImport (defaults to the built in odds)</li>
+     *     <li>-tlab skew|alternate|burst -- add allocations which stress TLABs, either heavily in one thread in
+     *     four, alternating tiny and large arrays or in bursts, and report TLAB statistics (defaults to none)</li>
+     *     <li>-metricsPort P -- serve live metrics in OpenMetrics format at http://localhost:P/metrics, 0 picking
+     *     a free port (defaults to no metrics server)</li>
+     *     <li>-mmu N -- keep a timeline of each thread's last N slices and print the minimum mutator utilization
+     *     curve for windows from 1 msec to 10 secs (defaults to no timeline)</li>
+     *     <li>-fastStart -- presize the work maps and create each thread's initial items in parallel</li>
+     *     <li>-mutate R -- for each item processed rewrite R references in long lived items to point at newly
+     *     allocated objects, stressing the collector's write barrier (defaults to 0)</li>
+     *     <li>-mutateSlots S -- number of reference slots in each item which may be rewritten (defaults to 4)</li>
+     *     <li>-classes N -- run a thread which defines N generated classes per second and drops them again,
+     *     reporting metaspace usage and class unloading (defaults to 0)</li>
+     *     <li>-classMode loader|hidden -- define the classes in throwaway class loaders or as hidden classes
+     *     (defaults to loader)</li>
+     *     <li>-threadChurn N -- run a thread which starts N short lived threads per second (defaults to 0)</li>
+     *     <li>-stackDepth D -- make each worker recurse D frames, each holding a live work item, before it starts
+     *     work so that GCs have to scan deep stacks. large depths may need a larger -Xss (defaults to 0)</li>
+     *     <li>-service R -- submit R requests per second to a pool of service threads and record their latency
+     *     including queueing (defaults to 0)</li>
+     *     <li>-servicePool P|virtual -- number of service threads or virtual to serve each request in a virtual
+     *     thread (defaults to 8)</li>
+     *     <li>-footprint -- measure the exact size of the live set held in the work maps at the end of the run.
+     *     needs the churn jar to be loaded as an agent using -javaagent or java -jar</li>
+     *     <li>-census S -- every S seconds count the items held in the work maps and their reference chains by
+     *     size class and estimate the bytes they retain (defaults to 0 i.e. no census)</li>
      * </ul>
      *
      * The defaults mean that the N thread short term maps will hold a little over 4Gb of data as, eventually,
@@ -217,19 +635,151 @@ public class TestRunner extends Thread
     {
         processArgs(args);
 
+        ResultLog resultLog = null;
+        if (resultLogFile != null) {
+            try {
+                resultLog = new ResultLog(new File(resultLogFile), resultLogMBs * 1024L * 1024L, resultLogCount);
+                resultLog.start();
+                resultLog.log("churn " + label + " args " + String.join(" ", args));
+            } catch (IOException e) {
+                System.out.println("failed to open result log " + resultLogFile + " : " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        CGroupInfo startCGroup = CGroupInfo.read();
+        if (startCGroup != null) {
+            startCGroup.printTo(System.out);
+        }
+
         /**
          * identify costs for allocating various objects
          */
         calibrate();
 
+        if (sharedLongTermMap != null) {
+            calibrateSharedPuts();
+        }
+
+        if (allocationProfile != null) {
+            allocationProfile.printTo(System.out);
+        }
+
+        if (slowSliceMSecs >= 0) {
+            openSafepointCounters();
+        }
+
+        if (tlabMode >= 0) {
+            tlabStats = new TlabStats(perfCounters != null ? perfCounters : PerfCounters.open());
+            tlabStats.start();
+        }
+
+        control = new ChurnControl(computationCount, sliceCount, yieldMSecCount, blockCount, threadCount, resultLog);
+        if (replayDir != null) {
+            control.fixOdds("-replay", true);
+        } else if (allocationProfile != null) {
+            control.fixOdds("-profile", false);
+        }
+        try {
+            control.register();
+        } catch (JMException e) {
+            System.out.println("failed to register control MBean : " + e.getMessage());
+        }
+
         TestRunner[] runners = new TestRunner[threadCount];
         for (int i = 0; i < threadCount; i++) {
-            runners[i] = new TestRunner(i);
+            runners[i] = new TestRunner(i, createWorkload(i));
+        }
+        TestReader[] readers = new TestReader[readerCount];
+        for (int i = 0; i < readerCount; i++) {
+            readers[i] = new TestReader(i, runners, itemCount, sliceCount);
+        }
+        Monitor monitor = null;
+        if (intervalSecs > 0) {
+            monitor = new Monitor(runners, intervalSecs, itemAdder, resultLog);
+        }
+        LiveSetCensus census = null;
+        if (censusSecs > 0) {
+            census = new LiveSetCensus(runners, sharedLongTermMap, itemCount, censusSecs, resultLog);
+        }
+        MetricsServer metricsServer = null;
+        if (metricsPort >= 0) {
+            try {
+                metricsServer = new MetricsServer(runners, label, metricsPort);
+                System.out.println("serving metrics at http://localhost:" + metricsServer.getPort() + "/metrics");
+            } catch (IOException e) {
+                System.out.println("failed to start metrics server on port " + metricsPort + " : " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        ServiceSimulator service = null;
+        if (serviceRate > 0) {
+            try {
+                service = new ServiceSimulator(runners, itemCount, serviceRate, servicePoolSize);
+            } catch (UnsupportedOperationException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        ThreadChurner threadChurner = null;
+        if (threadChurnRate > 0) {
+            threadChurner = new ThreadChurner(threadChurnRate);
         }
+        ClassChurner classChurner = null;
+        if (classRate > 0) {
+            try {
+                classChurner = new ClassChurner(classMode, classRate);
+            } catch (UnsupportedOperationException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        JitterProbe jitterProbe = null;
+        if (jitterMode >= 0) {
+            jitterProbe = new JitterProbe(jitterMode);
+            jitterProbe.start();
+        }
+        PerfSampler perfSampler = null;
+        if (perfSampleFile != null) {
+            PerfCounters counters = (perfCounters != null ? perfCounters : PerfCounters.open());
+            if (counters != null) {
+                try {
+                    perfSampler = new PerfSampler(counters, perfSampleRate, new File(perfSampleFile));
+                    perfSampler.start();
+                } catch (IOException e) {
+                    System.out.println("failed to open " + perfSampleFile + " : " + e.getMessage());
+                    System.exit(1);
+                }
+            } else {
+                System.out.println("perf counters unavailable, not sampling");
+            }
+        }
+        long startGCTime = Monitor.totalGCTime();
+        long[] startSafepoints = readSafepointCounters();
         long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        control.setStart(start);
         for (int i = 0; i < threadCount; i++) {
             runners[i].start();
         }
+        if (monitor != null) {
+            monitor.start();
+        }
+        if (census != null) {
+            census.start();
+        }
+        if (classChurner != null) {
+            classChurner.start();
+        }
+        if (threadChurner != null) {
+            threadChurner.start();
+        }
+        if (service != null) {
+            service.start();
+        }
+        for (int i = 0; i < readerCount; i++) {
+            readers[i].start();
+        }
         for (int i = 0; i < threadCount; i++) {
             try {
                 runners[i].join();
@@ -239,16 +789,60 @@ public class TestRunner extends Thread
             }
         }
         long end = System.currentTimeMillis();
+        long gcTime = Monitor.totalGCTime() - startGCTime;
+        long[] endSafepoints = readSafepointCounters();
+        if (tlabStats != null) {
+            tlabStats.finish();
+        }
+        if (monitor != null) {
+            monitor.finish();
+        }
+        if (census != null) {
+            census.finish();
+        }
+        if (jitterProbe != null) {
+            jitterProbe.finish();
+        }
+        if (classChurner != null) {
+            classChurner.finish();
+        }
+        if (threadChurner != null) {
+            threadChurner.finish();
+        }
+        if (service != null) {
+            service.finish();
+        }
+        if (perfSampler != null) {
+            perfSampler.finish();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        control.unregister();
+        for (int i = 0; i < readerCount; i++) {
+            readers[i].finish();
+            try {
+                readers[i].join();
+            } catch (InterruptedException e) {
+                System.out.println("failed to join reader[" + i + "]");
+                e.printStackTrace();
+            }
+        }
         System.out.println("Elapsed time " + (((end - start) * 1.0) / 1000) + " seconds for " + threadCount + " threads");
         System.out.println();
         long allocated = 0;
+        long iterations = 0;
+        long items = 0;
+        LogHistogram total;
         if (threadCount > 1) {
-            LogHistogram total = new LogHistogram(true, 10);
+            total = new LogHistogram(true, 10);
             for (int i= 0; i < threadCount; i++) {
                 LogHistogram next = runners[i].getHistogram();
                 total.accumulate(next);
                 long threadAllocated = runners[i].getAllocationCount();
                 allocated += threadAllocated;
+                iterations += runners[i].getIterations();
+                items += runners[i].getItemsProcessed();
                 System.out.println("Thread Allocated" + threadAllocated / (1024 * 1024) + " MBs");
                 System.out.println("Thread " + i + " Histogram");
                 next.printTo(System.out);
@@ -258,14 +852,412 @@ public class TestRunner extends Thread
             total.printTo(System.out);
         } else {
             allocated += runners[0].getAllocationCount();
+            iterations += runners[0].getIterations();
+            items += runners[0].getItemsProcessed();
+            total = runners[0].getHistogram();
             System.out.println("Total Allocated" + allocated / (1024 * 1024) + " MBs");
             System.out.println("Accumulated Histogram");
-            runners[0].getHistogram().printTo(System.out);
+            total.printTo(System.out);
+        }
+        if (startCGroup != null) {
+            CGroupInfo endCGroup = CGroupInfo.read();
+            if (endCGroup != null) {
+                endCGroup.printThrottlingTo(System.out, startCGroup);
+            }
+        }
+        long elapsed = Math.max(1, end - start);
+        String throughput = String.format("Throughput %d items/sec %.1f MB/sec GC overhead %.1f%% (%.3f seconds in GC)",
+                (items * 1000) / elapsed, (allocated / (1024.0 * 1024.0)) / (elapsed / 1000.0),
+                Monitor.gcOverhead(gcTime, elapsed), gcTime / 1000.0);
+        System.out.println(throughput);
+        printStartup(runners, start);
+        if (mutationRate > 0) {
+            long mutations = 0;
+            for (TestRunner runner : runners) {
+                mutations += runner.mutationCount;
+            }
+            System.out.println("Mutated " + mutations + " references in long lived items (" +
+                    (mutations * 1000) / elapsed + " per sec, " + mutationRate + " per item, " + mutationSlots + " slots)");
+        }
+        if (warmupSecs > 0) {
+            printWarmup(runners);
+        }
+        if (readerCount > 0) {
+            printReaders(readers, end - start);
+        }
+        if (sharedLongTermMap != null) {
+            printSharedLongTerm(runners);
+        }
+        if (tlabStats != null) {
+            System.out.println("TLAB scenario " + TlabScenario.getModeName(tlabMode));
+            tlabStats.printTo(System.out);
+        }
+        if (startSafepoints != null) {
+            printSafepoints(runners, startSafepoints, endSafepoints, gcTime);
+        }
+        if (timelineSlices > 0) {
+            printMMU(runners, startNanos);
+        }
+        if (census != null) {
+            census.printTo(System.out);
+        }
+        if (footprint) {
+            printFootprint(runners);
+        }
+        if (service != null) {
+            LogHistogram latency = service.getLatencyHistogram();
+            // percentiles are bucket upper bounds so they can exceed the max
+            long maxLatency = service.getMaxLatencyNanos() / 1000;
+            System.out.println("Service (" + service.getPoolName() + ") completed " + service.getCompletedCount() + " of " +
+                    service.getSubmittedCount() + " requests (" + (service.getCompletedCount() * 1000) / elapsed + " per sec offered " +
+                    serviceRate + ") " + service.getHitCount() + " shared items found");
+            System.out.println("Service latency 50% " + Math.min(latency.getPercentile(50), maxLatency) +
+                    " 99% " + Math.min(latency.getPercentile(99), maxLatency) +
+                    " 99.9% " + Math.min(latency.getPercentile(99.9), maxLatency) + " max " + maxLatency + " usecs");
+            System.out.println("Service Latency Histogram (usecs from intended start including queueing)");
+            latency.printTo(System.out);
+            System.out.println("Service Time Histogram (usecs)");
+            service.getServiceHistogram().printTo(System.out);
+        }
+        if (threadChurner != null) {
+            System.out.println("Thread churn started " + threadChurner.getStartedCount() + " threads (" +
+                    (threadChurner.getStartedCount() * 1000) / elapsed + " per sec) " + threadChurner.getFinishedCount() +
+                    " finished, peak live threads " + threadChurner.getPeakThreadCount());
+            System.out.println("Thread Start Histogram (usecs from start to running)");
+            threadChurner.getHistogram().printTo(System.out);
+        }
+        if (classChurner != null) {
+            System.out.println("Class churn (" + classChurner.getModeName() + ") defined " + classChurner.getDefinedCount() +
+                    " classes (" + (classChurner.getDefinedCount() * 1000) / elapsed + " per sec) " +
+                    classChurner.getUnloadedCount() + " classes unloaded");
+            System.out.println("Metaspace used " + classChurner.getMetaspaceUsed() / 1024 + " KBs max " +
+                    classChurner.getMaxMetaspaceUsed() / 1024 + " KBs committed " + classChurner.getMetaspaceCommitted() / 1024 + " KBs");
+            System.out.println("Class Definition Histogram (usecs)");
+            classChurner.getHistogram().printTo(System.out);
+        }
+        if (jitterProbe != null) {
+            System.out.println("Jitter probe (" + jitterProbe.getModeName() + ") max hiccup " + jitterProbe.getMaxHiccupNanos() / 1000 + " usecs");
+            System.out.println("Jitter Histogram (msecs late per 1 msec wait)");
+            jitterProbe.getHistogram().printTo(System.out);
+        }
+        if (perfSampler != null) {
+            try {
+                perfSampler.close();
+                System.out.println("Perf samples " + perfSampler.getSampleCount() + " of " + perfSampler.getCounterCount() +
+                        " counters written to " + perfSampleFile + " (" + perfSampler.getDroppedCount() + " dropped) max gap " +
+                        perfSampler.getMaxGapNanos() / 1000 + " usecs");
+            } catch (IOException e) {
+                System.out.println("failed to write perf samples to " + perfSampleFile + " : " + e.getMessage());
+            }
+        }
+        control.printTo(System.out);
+        RunResult result = new RunResult(label, threadCount, end - start, iterations, allocated, items, gcTime, total);
+        System.out.println(result.encode());
+        if (resultLog != null) {
+            resultLog.log(throughput);
+            resultLog.log("Accumulated Histogram", total);
+            resultLog.log(result.encode());
+            resultLog.finish();
+            System.out.println("Result log " + resultLog.getFile() + " rotated " + resultLog.getRotations() +
+                    " times, " + resultLog.getDroppedCount() + " lines dropped");
         }
         System.out.println("Successfully finished");
     }
 
+    /**
+     * measure and print the exact footprint of everything reachable from the work maps
+     * @param runners the worker threads
+     */
+    private static void printFootprint(TestRunner[] runners)
+    {
+        Instrumentation instrumentation = FootprintAgent.getInstrumentation();
+        if (instrumentation == null) {
+            System.out.println("Footprint unavailable, run with -javaagent:target/churn-1.0.jar");
+            return;
+        }
+        List<Object> roots = new ArrayList<Object>();
+        long entries = 0;
+        for (TestRunner runner : runners) {
+            roots.add(runner.shortTermMap);
+            entries += runner.shortTermMap.size();
+            if (sharedLongTermMap == null) {
+                roots.add(runner.longTermMap);
+                entries += runner.longTermMap.size();
+            }
+            roots.add(runner.longTermItems);
+        }
+        if (sharedLongTermMap != null) {
+            roots.add(sharedLongTermMap);
+            entries += sharedLongTermMap.size();
+        }
+        long start = System.currentTimeMillis();
+        Footprint footprint = new Footprint(instrumentation);
+        footprint.measure(roots);
+        long elapsed = System.currentTimeMillis() - start;
+        footprint.printTo(System.out, entries);
+        System.out.println("  calibrated estimates item " + workItemCost + " map insert " + workItemInsertCost +
+                " new map " + workItemMapCost + " bytes, measured in " + elapsed + " msecs");
+    }
+
+    /**
+     * print the MMU curve for each window size, taking the minimum over all threads, and
+     * where the window with the highest pause density lies
+     * @param runners the worker threads
+     * @param startNanos the time the workers were started
+     */
+    private static void printMMU(TestRunner[] runners, long startNanos)
+    {
+        long[] windows = SliceTimeline.WINDOWS;
+        double[] minimum = new double[windows.length];
+        long[] worstStarts = new long[windows.length];
+        int[] worstThreads = new int[windows.length];
+        Arrays.fill(minimum, -1);
+        long retained = 0;
+        for (TestRunner runner : runners) {
+            SliceTimeline timeline = runner.timeline;
+            if (timeline.size() == 0) {
+                continue;
+            }
+            retained += timeline.size();
+            long[][] pauses = timeline.pauses();
+            long[] starts = new long[windows.length];
+            double[] mmu = SliceTimeline.mmu(pauses[0], pauses[1], timeline.getFrom(), timeline.getTo(), windows, starts);
+            for (int w = 0; w < windows.length; w++) {
+                if (mmu[w] >= 0 && (minimum[w] < 0 || mmu[w] < minimum[w])) {
+                    minimum[w] = mmu[w];
+                    worstStarts[w] = starts[w];
+                    worstThreads[w] = runner.id;
+                }
+            }
+        }
+        System.out.println("MMU over " + retained + " slices (minimum over all threads)");
+        for (int w = 0; w < windows.length; w++) {
+            if (minimum[w] < 0) {
+                continue;
+            }
+            System.out.println(String.format("  window %6d msecs MMU %.3f max pause density %5.1f%% at %.3f secs in thread %d",
+                    windows[w] / 1000000, minimum[w], (1.0 - minimum[w]) * 100, (worstStarts[w] - startNanos) / 1.0e9,
+                    worstThreads[w]));
+        }
+    }
+
+    /**
+     * print how long the threads took to populate and link their work sets and, when there is
+     * a warmup phase, how long it took them to reach a steady state once they started iterating
+     * @param runners the worker threads
+     * @param start the time the workers were started
+     */
+    private static void printStartup(TestRunner[] runners, long start)
+    {
+        long populate = 0;
+        long link = 0;
+        long iterating = 0;
+        long steady = 0;
+        boolean allSteady = true;
+        for (TestRunner runner : runners) {
+            populate = Math.max(populate, runner.populateMSecs);
+            link = Math.max(link, runner.linkMSecs);
+            iterating = Math.max(iterating, runner.iterateStartMSecs - start);
+            if (runner.warmupMSecs >= 0) {
+                steady = Math.max(steady, runner.iterateStartMSecs - start + runner.warmupMSecs);
+            } else {
+                allSteady = false;
+            }
+        }
+        System.out.println("Startup" + (fastStart ? " (fast)" : "") + " populate " + populate + " msecs link " + link +
+                " msecs all threads iterating after " + (iterating * 1.0) / 1000 + " seconds");
+        if (warmupSecs > 0) {
+            if (allSteady) {
+                System.out.println("Time to steady state " + (steady * 1.0) / 1000 + " seconds (" +
+                        ((steady - iterating) * 1.0) / 1000 + " seconds after startup)");
+            } else {
+                System.out.println("Time to steady state unknown, some threads never left warmup");
+            }
+        }
+    }
+
+    /**
+     * print the time each thread took to reach a steady state and the slice timings recorded
+     * while it was warming up
+     * @param runners the worker threads
+     */
+    private static void printWarmup(TestRunner[] runners)
+    {
+        LogHistogram total = new LogHistogram(true, 10);
+        for (int i = 0; i < threadCount; i++) {
+            LogHistogram next = runners[i].getWarmupHistogram();
+            total.accumulate(next);
+            long warmup = runners[i].getWarmupMSecs();
+            if (warmup >= 0) {
+                System.out.println("Thread " + i + " left warmup after " + (warmup * 1.0) / 1000 + " seconds");
+            } else {
+                System.out.println("Thread " + i + " never left warmup");
+            }
+            if (threadCount > 1) {
+                System.out.println("Thread " + i + " Warmup Histogram");
+                next.printTo(System.out);
+            }
+        }
+        System.out.println("Accumulated Warmup Histogram");
+        total.printTo(System.out);
+    }
+
+    /**
+     * print the number of reads performed by the reader threads and their read slice timings
+     * @param readers the reader threads
+     * @param elapsed the elapsed time of the run in msecs
+     */
+    private static void printReaders(TestReader[] readers, long elapsed)
+    {
+        LogHistogram total = new LogHistogram(24, true, 10);
+        long reads = 0;
+        long hits = 0;
+        for (int i = 0; i < readerCount; i++) {
+            total.accumulate(readers[i].getHistogram());
+            reads += readers[i].getReadCount();
+            hits += readers[i].getHitCount();
+        }
+        System.out.println("Total Reads " + reads + " (" + hits + " hits) " + (reads * 1000) / Math.max(1, elapsed) + " reads/sec for " + readerCount + " readers");
+        System.out.println("Accumulated Read Histogram (usecs per " + sliceCount + " reads)");
+        total.printTo(System.out);
+    }
+
+    /**
+     * print the state of the shared long term map and the timings for puts into it
+     * @param runners the worker threads
+     */
+    private static void printSharedLongTerm(TestRunner[] runners)
+    {
+        LogHistogram total = new LogHistogram(36, true, 10);
+        for (int i = 0; i < threadCount; i++) {
+            total.accumulate(runners[i].getPutHistogram());
+        }
+        long contention = sharedLongTermMap.getContentionCount();
+        System.out.println("Shared Long Term Map " + sharedLongTermMap.getName() + " holds " + sharedLongTermMap.size() + " items");
+        if (contention >= 0) {
+            System.out.println("Shared Long Term Map contended " + contention + " times");
+        } else {
+            System.out.println("Shared Long Term Map contention count n/a");
+        }
+        // a put which takes longer than it does with no other thread using the map is a
+        // sign of contention whether or not the map can count it
+        StringBuilder builder = new StringBuilder("Shared Put times (nsecs) run/uncontended :");
+        for (double percentile : RunResult.PERCENTILES) {
+            builder.append(' ').append(RunResult.percentileName(percentile)).append(' ')
+                    .append(total.getPercentile(percentile)).append('/').append(sharedPutBaseline.getPercentile(percentile));
+        }
+        System.out.println(builder);
+        System.out.println("Accumulated Shared Put Histogram (nsecs)");
+        total.printTo(System.out);
+        System.out.println("Uncontended Shared Put Histogram (nsecs)");
+        sharedPutBaseline.printTo(System.out);
+    }
+
+    /**
+     * locate the safepoint perf counters, disabling safepoint measurement if they are not available
+     */
+    private static void openSafepointCounters()
+    {
+        perfCounters = PerfCounters.open();
+        if (perfCounters != null) {
+            safepointsCounter = perfCounters.find("sun.rt.safepoints");
+            safepointTimeCounter = perfCounters.find("sun.rt.safepointTime");
+            safepointSyncTimeCounter = perfCounters.find("sun.rt.safepointSyncTime");
+        }
+        if (perfCounters == null || safepointsCounter < 0 || safepointTimeCounter < 0 || safepointSyncTimeCounter < 0) {
+            System.out.println("safepoint perf counters unavailable, not measuring safepoints");
+            perfCounters = null;
+            slowSliceMSecs = -1;
+        }
+    }
+
+    /**
+     * @return the current safepoint count, total safepoint time and safepoint sync time or null
+     * if safepoints are not being measured
+     */
+    private static long[] readSafepointCounters()
+    {
+        if (perfCounters == null) {
+            return null;
+        }
+        return new long[] { perfCounters.get(safepointsCounter), perfCounters.get(safepointTimeCounter),
+                perfCounters.get(safepointSyncTimeCounter) };
+    }
+
+    /**
+     * print the safepoint totals for the run, splitting safepoint time into the time taken to bring
+     * threads to a safepoint and the time spent in the safepoint operation itself, followed by the
+     * safepoint times which overlapped slow slices
+     * @param runners the worker threads
+     * @param start the safepoint counters at the start of the run
+     * @param end the safepoint counters at the end of the run
+     * @param gcTime the time spent in GC pauses according to the GarbageCollectorMXBeans in msecs
+     */
+    private static void printSafepoints(TestRunner[] runners, long[] start, long[] end, long gcTime)
+    {
+        long count = end[0] - start[0];
+        double total = perfCounters.ticksToMillis(end[1] - start[1]);
+        double sync = perfCounters.ticksToMillis(end[2] - start[2]);
+        System.out.println(String.format("Safepoints %d total %.3f msecs sync %.3f msecs (%.1f%%) operation %.3f msecs (GC %d msecs)",
+                count, total, sync, (total > 0 ? (sync * 100) / total : 0.0), total - sync, gcTime));
+        LogHistogram syncTotal = new LogHistogram(24, true, 10);
+        LogHistogram safepointTotal = new LogHistogram(24, true, 10);
+        long slow = 0;
+        long overlapping = 0;
+        for (int i = 0; i < threadCount; i++) {
+            syncTotal.accumulate(runners[i].getSlowSyncHistogram());
+            safepointTotal.accumulate(runners[i].getSlowSafepointHistogram());
+            slow += runners[i].getSlowSlices();
+            overlapping += runners[i].getSlowSafepointSlices();
+        }
+        System.out.println("Slow slices (>= " + slowSliceMSecs + " msecs) " + slow + " of which " + overlapping + " overlapped a safepoint");
+        if (overlapping > 0) {
+            System.out.println("Accumulated Slow Slice Safepoint Sync Histogram (usecs)");
+            syncTotal.printTo(System.out);
+            System.out.println("Accumulated Slow Slice Safepoint Histogram (usecs)");
+            safepointTotal.printTo(System.out);
+        }
+    }
+
+    /**
+     * create the workload for a worker thread
+     * @param id the thread id
+     * @return a workload making random decisions, possibly recorded, or replaying recorded ones
+     */
+    private static Workload createWorkload(int id)
+    {
+        int itemStart = id * itemCount;
+        try {
+            if (replayDir != null) {
+                return new ReplayWorkload(traceFile(replayDir, id), threadCount, id, itemCount);
+            }
+            Workload workload;
+            if (allocationProfile != null) {
+                workload = new ProfileWorkload(new Random(itemStart), allocationProfile);
+            } else {
+                workload = new RandomWorkload(new Random(itemStart));
+            }
+            if (recordDir != null) {
+                workload = new RecordingWorkload(traceFile(recordDir, id), workload, threadCount, id, itemCount);
+            }
+            return workload;
+        } catch (IOException e) {
+            System.out.println("cannot open trace for thread " + id + " : " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * @return the trace file for a thread in a trace directory
+     */
+    private static File traceFile(String dir, int id)
+    {
+        return new File(dir, "churn-trace-" + id + ".bin");
+    }
+
     private static void processArgs(String[] args) {
+        String sharedLongTermMode = null;
         for (int i = 0; i < args.length; i++) {
             try {
                 if (args[i].equals("-blocks") && i + 1 < args.length) {
@@ -282,7 +1274,12 @@ public class TestRunner extends Thread
                     }
                 } else if (args[i].equals("-threads") && i + 1 < args.length) {
                     i++;
-                    threadCount = Integer.valueOf(args[i]);
+                    if (args[i].equals("cpus")) {
+                        threadCount = Math.min(64, CGroupInfo.effectiveCpuCount());
+                        System.out.println("using " + threadCount + " threads");
+                    } else {
+                        threadCount = Integer.valueOf(args[i]);
+                    }
                     if (threadCount <= 0 || threadCount > 64) {
                         usage(4, args[i]);
                     }
@@ -310,6 +1307,17 @@ public class TestRunner extends Thread
                     if (computationCount <= 0) {
                         usage(6, args[i]);
                     }
+                } else if (args[i].equals("-kernel") && i + 1 < args.length) {
+                    i++;
+                    kernel = -1;
+                    for (int k = 0; k < WorkItem.KERNEL_NAMES.length; k++) {
+                        if (WorkItem.KERNEL_NAMES[k].equals(args[i])) {
+                            kernel = k;
+                        }
+                    }
+                    if (kernel < 0) {
+                        usage(17, args[i]);
+                    }
                 } else if (args[i].equals("-slices") && i + 1 < args.length) {
                     i++;
                     sliceCount = Integer.valueOf(args[i]);
@@ -322,6 +1330,200 @@ public class TestRunner extends Thread
                     if (yieldMSecCount < -1) {
                         usage(8, args[i]);
                     }
+                } else if (args[i].equals("-warmup") && i + 1 < args.length) {
+                    i++;
+                    warmupSecs = Integer.valueOf(args[i]);
+                    if (warmupSecs < 0) {
+                        usage(11, args[i]);
+                    }
+                } else if (args[i].equals("-steadyState") && i + 1 < args.length) {
+                    i++;
+                    if (args[i].equals("median")) {
+                        steadyStateMode = SteadyStateDetector.MODE_MEDIAN;
+                    } else if (args[i].equals("heap")) {
+                        steadyStateMode = SteadyStateDetector.MODE_HEAP;
+                    } else {
+                        usage(12, args[i]);
+                    }
+                } else if (args[i].equals("-label") && i + 1 < args.length) {
+                    i++;
+                    label = args[i];
+                    if (label.length() == 0) {
+                        usage(13, args[i]);
+                    }
+                } else if (args[i].equals("-readers") && i + 1 < args.length) {
+                    i++;
+                    readerCount = Integer.valueOf(args[i]);
+                    if (readerCount < 0 || readerCount > 64) {
+                        usage(14, args[i]);
+                    }
+                } else if (args[i].equals("-sharedLongTerm") && i + 1 < args.length) {
+                    i++;
+                    sharedLongTermMode = args[i];
+                    if (!sharedLongTermMode.equals("chm") && !sharedLongTermMode.equals("striped")) {
+                        usage(15, args[i]);
+                    }
+                } else if (args[i].equals("-interval") && i + 1 < args.length) {
+                    i++;
+                    intervalSecs = Integer.valueOf(args[i]);
+                    if (intervalSecs < 0) {
+                        usage(18, args[i]);
+                    }
+                } else if (args[i].equals("-adder")) {
+                    itemAdder = new LongAdder();
+                } else if (args[i].equals("-jitter") && i + 1 < args.length) {
+                    i++;
+                    if (args[i].equals("sleep")) {
+                        jitterMode = JitterProbe.MODE_SLEEP;
+                    } else if (args[i].equals("spin")) {
+                        jitterMode = JitterProbe.MODE_SPIN;
+                    } else {
+                        usage(19, args[i]);
+                    }
+                } else if (args[i].equals("-safepoints") && i + 1 < args.length) {
+                    i++;
+                    slowSliceMSecs = Integer.valueOf(args[i]);
+                    if (slowSliceMSecs < 0) {
+                        usage(20, args[i]);
+                    }
+                } else if (args[i].equals("-perfSample") && i + 1 < args.length) {
+                    i++;
+                    perfSampleFile = args[i];
+                } else if (args[i].equals("-perfRate") && i + 1 < args.length) {
+                    i++;
+                    perfSampleRate = Integer.valueOf(args[i]);
+                    if (perfSampleRate <= 0 || perfSampleRate > 100000) {
+                        usage(21, args[i]);
+                    }
+                } else if (args[i].equals("-resultLog") && i + 1 < args.length) {
+                    i++;
+                    resultLogFile = args[i];
+                } else if (args[i].equals("-resultLogSize") && i + 1 < args.length) {
+                    i++;
+                    resultLogMBs = Integer.valueOf(args[i]);
+                    if (resultLogMBs <= 0) {
+                        usage(22, args[i]);
+                    }
+                } else if (args[i].equals("-resultLogCount") && i + 1 < args.length) {
+                    i++;
+                    resultLogCount = Integer.valueOf(args[i]);
+                    if (resultLogCount < 0) {
+                        usage(23, args[i]);
+                    }
+                } else if (args[i].equals("-record") && i + 1 < args.length) {
+                    i++;
+                    recordDir = args[i];
+                    if (!new File(recordDir).isDirectory()) {
+                        usage(24, args[i]);
+                    }
+                } else if (args[i].equals("-replay") && i + 1 < args.length) {
+                    i++;
+                    replayDir = args[i];
+                    if (!new File(replayDir).isDirectory()) {
+                        usage(24, args[i]);
+                    }
+                } else if (args[i].equals("-profile") && i + 1 < args.length) {
+                    i++;
+                    try {
+                        allocationProfile = AllocationProfile.load(new File(args[i]));
+                    } catch (IOException e) {
+                        System.out.println(e.getMessage());
+                        usage(26, args[i]);
+                    }
+                } else if (args[i].equals("-tlab") && i + 1 < args.length) {
+                    i++;
+                    tlabMode = -1;
+                    for (int m = 0; m < TlabScenario.MODE_NAMES.length; m++) {
+                        if (TlabScenario.MODE_NAMES[m].equals(args[i])) {
+                            tlabMode = m;
+                        }
+                    }
+                    if (tlabMode < 0) {
+                        usage(27, args[i]);
+                    }
+                } else if (args[i].equals("-metricsPort") && i + 1 < args.length) {
+                    i++;
+                    metricsPort = Integer.valueOf(args[i]);
+                    if (metricsPort < 0 || metricsPort > 65535) {
+                        usage(28, args[i]);
+                    }
+                } else if (args[i].equals("-mmu") && i + 1 < args.length) {
+                    i++;
+                    timelineSlices = Integer.valueOf(args[i]);
+                    if (timelineSlices <= 0) {
+                        usage(29, args[i]);
+                    }
+                } else if (args[i].equals("-mutate") && i + 1 < args.length) {
+                    i++;
+                    mutationRate = Integer.valueOf(args[i]);
+                    if (mutationRate < 0) {
+                        usage(30, args[i]);
+                    }
+                } else if (args[i].equals("-mutateSlots") && i + 1 < args.length) {
+                    i++;
+                    mutationSlots = Integer.valueOf(args[i]);
+                    if (mutationSlots <= 0) {
+                        usage(31, args[i]);
+                    }
+                } else if (args[i].equals("-service") && i + 1 < args.length) {
+                    i++;
+                    serviceRate = Integer.valueOf(args[i]);
+                    if (serviceRate < 0) {
+                        usage(36, args[i]);
+                    }
+                } else if (args[i].equals("-servicePool") && i + 1 < args.length) {
+                    i++;
+                    if (args[i].equals("virtual")) {
+                        servicePoolSize = 0;
+                    } else {
+                        servicePoolSize = Integer.valueOf(args[i]);
+                        if (servicePoolSize <= 0) {
+                            usage(37, args[i]);
+                        }
+                    }
+                } else if (args[i].equals("-threadChurn") && i + 1 < args.length) {
+                    i++;
+                    threadChurnRate = Integer.valueOf(args[i]);
+                    if (threadChurnRate < 0) {
+                        usage(34, args[i]);
+                    }
+                } else if (args[i].equals("-stackDepth") && i + 1 < args.length) {
+                    i++;
+                    stackDepth = Integer.valueOf(args[i]);
+                    if (stackDepth < 0) {
+                        usage(35, args[i]);
+                    }
+                } else if (args[i].equals("-classes") && i + 1 < args.length) {
+                    i++;
+                    classRate = Integer.valueOf(args[i]);
+                    if (classRate < 0) {
+                        usage(32, args[i]);
+                    }
+                } else if (args[i].equals("-classMode") && i + 1 < args.length) {
+                    i++;
+                    if (args[i].equals("loader")) {
+                        classMode = ClassChurner.MODE_LOADER;
+                    } else if (args[i].equals("hidden")) {
+                        classMode = ClassChurner.MODE_HIDDEN;
+                    } else {
+                        usage(33, args[i]);
+                    }
+                } else if (args[i].equals("-census") && i + 1 < args.length) {
+                    i++;
+                    censusSecs = Integer.valueOf(args[i]);
+                    if (censusSecs < 0) {
+                        usage(38, args[i]);
+                    }
+                } else if (args[i].equals("-footprint")) {
+                    footprint = true;
+                } else if (args[i].equals("-fastStart")) {
+                    fastStart = true;
+                } else if (args[i].equals("-stripes") && i + 1 < args.length) {
+                    i++;
+                    stripeCount = Integer.valueOf(args[i]);
+                    if (stripeCount <= 0 || (stripeCount & (stripeCount - 1)) != 0) {
+                        usage(16, args[i]);
+                    }
                 } else {
                     usage(9, args[i]);
                 }
@@ -335,6 +1537,35 @@ public class TestRunner extends Thread
         itemTotal = itemTotalThousands * 1000;
         itemCount =  itemTotal / threadCount;
 
+        if (label == null) {
+            label = defaultLabel();
+        }
+
+        if (recordDir != null && replayDir != null) {
+            usage(25, replayDir);
+        }
+
+        if ("chm".equals(sharedLongTermMode)) {
+            sharedLongTermMap = SharedWorkItemMap.createConcurrent();
+        } else if ("striped".equals(sharedLongTermMode)) {
+            sharedLongTermMap = SharedWorkItemMap.createStriped(stripeCount);
+        }
+
+    }
+
+    /**
+     * @return a label naming the garbage collectors in use
+     */
+    private static String defaultLabel()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (builder.length() > 0) {
+                builder.append('+');
+            }
+            builder.append(gcBean.getName().replace(' ', '_'));
+        }
+        return builder.toString();
     }
 
     /**
@@ -390,6 +1621,27 @@ public class TestRunner extends Thread
         workItemCost = (int)(bytesUsed/objectCount);
     }
 
+    /**
+     * time puts into the shared long term map while no other thread is using it then remove
+     * the items again. the puts are repeated a few times and only the last round is timed so
+     * that the baseline is not inflated by interpretation and JIT compilation.
+     */
+    private static void calibrateSharedPuts()
+    {
+        int putCount = (int)Math.min((long)itemCount * threadCount, 100000);
+        WorkItem item = new WorkItem("item 0", 0, 0);
+        for (int round = 0; round < 5; round++) {
+            sharedPutBaseline = new LogHistogram(36, true, 10);
+            for (int i = 0; i < putCount; i++) {
+                String name = "item " + i;
+                long start = System.nanoTime();
+                sharedLongTermMap.put(name, item);
+                sharedPutBaseline.count(System.nanoTime() - start);
+            }
+            sharedLongTermMap.purge(0, putCount);
+        }
+    }
+
     /**
      * count allocation overhead for adding a new item map
      */
@@ -412,6 +1664,10 @@ public class TestRunner extends Thread
     private void countItemAllocate(WorkItem item)
     {
         allocationCount += workItemCost + (item.getBlockCount() * item.getBlockSize());
+        if (item.getSlotCount() > 0) {
+            // an array header plus a compressed reference per slot
+            allocationCount += 16 + 4 * item.getSlotCount();
+        }
     }
 
     private static void usage(int i, String extra) {
@@ -446,48 +1702,208 @@ public class TestRunner extends Thread
             case 10:
                 System.out.println("invalid duration count " + extra);
                 break;
+            case 11:
+                System.out.println("invalid warmup time " + extra);
+                break;
+            case 12:
+                System.out.println("invalid steady state mode " + extra);
+                break;
+            case 13:
+                System.out.println("invalid label " + extra);
+                break;
+            case 14:
+                System.out.println("invalid reader count " + extra);
+                break;
+            case 15:
+                System.out.println("invalid shared long term map mode " + extra);
+                break;
+            case 16:
+                System.out.println("invalid stripe count " + extra);
+                break;
+            case 17:
+                System.out.println("invalid kernel " + extra);
+                break;
+            case 18:
+                System.out.println("invalid interval " + extra);
+                break;
+            case 19:
+                System.out.println("invalid jitter mode " + extra);
+                break;
+            case 20:
+                System.out.println("invalid slow slice time " + extra);
+                break;
+            case 21:
+                System.out.println("invalid perf sample rate " + extra);
+                break;
+            case 22:
+                System.out.println("invalid result log size " + extra);
+                break;
+            case 23:
+                System.out.println("invalid result log count " + extra);
+                break;
+            case 24:
+                System.out.println("invalid trace directory " + extra);
+                break;
+            case 25:
+                System.out.println("cannot both record and replay " + extra);
+                break;
+            case 26:
+                System.out.println("invalid allocation profile " + extra);
+                break;
+            case 27:
+                System.out.println("invalid TLAB scenario " + extra);
+                break;
+            case 28:
+                System.out.println("invalid metrics port " + extra);
+                break;
+            case 29:
+                System.out.println("invalid timeline size " + extra);
+                break;
+            case 30:
+                System.out.println("invalid mutation rate " + extra);
+                break;
+            case 31:
+                System.out.println("invalid mutation slot count " + extra);
+                break;
+            case 32:
+                System.out.println("invalid class rate " + extra);
+                break;
+            case 33:
+                System.out.println("invalid class mode " + extra);
+                break;
+            case 34:
+                System.out.println("invalid thread churn rate " + extra);
+                break;
+            case 35:
+                System.out.println("invalid stack depth " + extra);
+                break;
+            case 36:
+                System.out.println("invalid service rate " + extra);
+                break;
+            case 37:
+                System.out.println("invalid service pool " + extra);
+                break;
+            case 38:
+                System.out.println("invalid census interval " + extra);
+                break;
         }
-        System.out.println("usage TestRunner [-blocks B] [-items I] [-threads T] [-iterations N | -duration D] [-computations C] [-slices S] [-yieldMSecs Y");
+        System.out.println("usage TestRunner [-blocks B] [-items I] [-threads T|cpus] [-iterations N | -duration D] [-computations C] [-slices S] [-yieldMSecs Y]" +
+                " [-warmup W] [-steadyState median|heap] [-label L]" +
+                " [-readers R] [-sharedLongTerm chm|striped] [-stripes K] [-kernel xor|stream|strided|random|hash]" +
+                " [-interval V] [-adder] [-jitter sleep|spin] [-safepoints M]" +
+                " [-perfSample F] [-perfRate H] [-resultLog F] [-resultLogSize M] [-resultLogCount K]" +
+                " [-record DIR | -replay DIR] [-profile P]" +
+                " [-tlab skew|alternate|burst] [-metricsPort P] [-mmu N] [-fastStart]" +
+                " [-mutate R] [-mutateSlots S] [-classes N] [-classMode loader|hidden]" +
+                " [-threadChurn N] [-stackDepth D] [-service R] [-servicePool P|virtual] [-footprint]" +
+                " [-census S]");
         System.exit(i);
     }
 
-    public TestRunner(int id)
+    public TestRunner(int id, Workload workload)
     {
         this.id  = id;
-        this.longTermMap = new WorkItemMap();
-        this.shortTermMap = new WorkItemMap();
+        this.workload = workload;
+        this.tlabScenario = (tlabMode >= 0 ? new TlabScenario(tlabMode, id) : null);
+        this.longTermMap = (fastStart ? new WorkItemMap(itemCount) : new WorkItemMap());
+        this.shortTermMap = (fastStart ? new WorkItemMap(itemCount) : new WorkItemMap());
         this.itemStart = id * itemCount;
         this.logHistogram = new LogHistogram(true, 10);
+        this.warmupHistogram = new LogHistogram(true, 10);
+        this.warmupMSecs = -1;
+        this.putHistogram = new LogHistogram(36, true, 10);
+        this.slowSyncHistogram = new LogHistogram(24, true, 10);
+        this.slowSafepointHistogram = new LogHistogram(24, true, 10);
         this.allocationCount = 0;
+        this.timeline = (timelineSlices > 0 ? new SliceTimeline(timelineSlices) : null);
+        if (mutationRate > 0) {
+            this.longTermItems = new WorkItem[itemCount];
+            this.mutationRandom = new Random(itemStart + 1);
+        }
+        applyControl();
+    }
+
+    /**
+     * copy the parameters held by the control into this thread's fields and its workload
+     */
+    private void applyControl()
+    {
+        // read the version first so a change made while copying is applied next time
+        controlVersion = control.getVersion();
+        computations = control.getComputations();
+        slices = control.getSlices();
+        yieldMSecs = control.getYieldMSecs();
+        blocks = control.getBlocks();
+        activeThreads = control.getActiveThreads();
+        workload.tune(control);
     }
 
     public void run()
     {
-        doWork();
+        if (stackDepth > 0) {
+            descend(stackDepth);
+        } else {
+            doWork();
+        }
+    }
+
+    /**
+     * recurse to the given depth allocating a work item in each frame and then do the work,
+     * so that every GC has to scan a deep stack to find the items
+     * @param depth the number of frames still to add
+     * @return a value derived from the items so that they stay live
+     */
+    private int descend(int depth)
+    {
+        WorkItem item = new WorkItem("frame " + depth, 1, 32);
+        int result;
+        if (depth > 1) {
+            result = descend(depth - 1);
+        } else {
+            doWork();
+            result = 0;
+        }
+        // use the item after the call so it is live throughout
+        return result + item.getBlockCount();
     }
 
     public void doWork()
     {
         System.out.println("thread " + id + " : start");
-        Random random = new Random(itemStart);
 
         // first fill the short term workmap with the required instances so all references can be resolved
 
-        for (int i = 0; i < itemCount; i++) {
-            int idx = itemStart + i;
-            String name = "item " + idx;
-            WorkItem item = new WorkItem(name, blockCount);
-            shortTermMap.put(name, item);
+        long populateStart = System.currentTimeMillis();
+        if (fastStart) {
+            // the items are independent and the map is concurrent so they can be created in
+            // parallel. the link pass below must stay sequential as it consumes workload decisions
+            IntStream.range(0, itemCount).parallel().forEach(new IntConsumer() {
+                @Override
+                public void accept(int i) {
+                    String name = "item " + (itemStart + i);
+                    shortTermMap.put(name, new WorkItem(name, blockCount, 250, (mutationRate > 0 ? mutationSlots : 0)));
+                }
+            });
+        } else {
+            for (int i = 0; i < itemCount; i++) {
+                int idx = itemStart + i;
+                String name = "item " + idx;
+                WorkItem item = new WorkItem(name, blockCount, 250, (mutationRate > 0 ? mutationSlots : 0));
+                shortTermMap.put(name, item);
+            }
         }
+        long linkStart = System.currentTimeMillis();
+        populateMSecs = linkStart - populateStart;
 
         // now create some chains with a low probability of them reaching any serious length
 
         System.out.println("thread " + id + " : link");
 
         for (int i = 0; i < itemCount; i++) {
-	    if (random.nextInt(LINK_ODDS) == 0) {
+            int linkOffset = workload.initialLink(itemCount);
+	    if (linkOffset != Workload.NO_LINK) {
                 int idx = itemStart + i;
-                int linkIdx = itemStart + random.nextInt(itemCount);
+                int linkIdx = itemStart + linkOffset;
                 String name = "item " + idx;
                 String linkName = "item " + linkIdx;
                 WorkItem item = shortTermMap.get(name);
@@ -519,28 +1935,89 @@ public class TestRunner extends Thread
 
         int slice = 0;
         long currentTime = System.currentTimeMillis();
+        linkMSecs = currentTime - linkStart;
+        iterateStartMSecs = currentTime;
+        // the safepoint counters are read at every slice boundary so that those overlapping
+        // a slow slice can be identified. reading a mapped counter does not allocate.
+        long safepoints = 0;
+        long safepointTime = 0;
+        long safepointSyncTime = 0;
+        if (slowSliceMSecs >= 0) {
+            safepoints = perfCounters.get(safepointsCounter);
+            safepointTime = perfCounters.get(safepointTimeCounter);
+            safepointSyncTime = perfCounters.get(safepointSyncTimeCounter);
+        }
+
+        // while warming up slice timings go to the warmup histogram
+        long iterateStart = currentTime;
+        // the timeline is kept in nanoseconds so that short slices can be placed accurately
+        long sliceStartNanos = System.nanoTime();
+        SteadyStateDetector detector = null;
+        if (warmupSecs > 0) {
+            detector = new SteadyStateDetector(steadyStateMode);
+        } else {
+            warmupMSecs = 0;
+        }
 
         LoopCondition loopCond = createLoopCondition();
         int iterationCounter;
-        for (iterationCounter = 0; loopCond.check(iterationCounter); iterationCounter++) {
+        boolean parkedAtEnd = false;
+        iterate:
+        for (iterationCounter = 0; loopCond.check(iterationCounter) && workload.hasMore(); iterationCounter++) {
             // across each 10 successive iterations we bias item block sizes from
             // 50% to 150% of the nominal size, making it all the more likely we run
             // into mature space fragmentation issues
             int sizeBias = 6 + (iterationCounter % 10);
             for (int i = 0; i < itemCount; i++) {
-                doOneItem(random, i, sizeBias);
+                doOneItem(i, sizeBias);
                 // increment the slicecounter and see if we need to collect a timing
-                slice = (slice + 1) % sliceCount;
+                slice = (slice + 1) % slices;
                 if (slice == 0) {
+                    publishedItems = itemsProcessed;
+                    publishedAllocation = allocationCount;
+                    publishedPromotions = promotionCount;
+                    publishedPurges = purgeCount;
                     long newTime= System.currentTimeMillis();
                     long diff = newTime - currentTime;
-                    logHistogram.count(diff);
-                    if (yieldMSecCount >= 0) {
+                    if (timeline != null) {
+                        timeline.record(sliceStartNanos, System.nanoTime());
+                    }
+                    if (slowSliceMSecs >= 0) {
+                        long newSafepoints = perfCounters.get(safepointsCounter);
+                        long newSafepointTime = perfCounters.get(safepointTimeCounter);
+                        long newSafepointSyncTime = perfCounters.get(safepointSyncTimeCounter);
+                        if (diff >= slowSliceMSecs) {
+                            slowSlices++;
+                            if (newSafepoints != safepoints) {
+                                slowSafepointSlices++;
+                                slowSyncHistogram.count(perfCounters.ticksToMicros(newSafepointSyncTime - safepointSyncTime));
+                                slowSafepointHistogram.count(perfCounters.ticksToMicros(newSafepointTime - safepointTime));
+                            }
+                        }
+                        safepoints = newSafepoints;
+                        safepointTime = newSafepointTime;
+                        safepointSyncTime = newSafepointSyncTime;
+                    }
+                    if (detector == null) {
+                        logHistogram.count(diff);
+                        sliceMSecs += diff;
+                        publishedSliceMSecs = sliceMSecs;
+                    } else {
+                        warmupHistogram.count(diff);
+                        boolean steady = detector.sample(diff);
+                        if (steady || newTime - iterateStart >= warmupSecs * 1000L) {
+                            warmupMSecs = newTime - iterateStart;
+                            System.out.println("thread " + id + " : " + (steady ? "steady (" + detector.getModeName() + ")" : "warmup timeout") +
+                                    " after " + warmupHistogram.getSampleCount() + " slices");
+                            detector = null;
+                        }
+                    }
+                    if (yieldMSecs >= 0) {
                         try {
-                            if (yieldMSecCount == 0) {
+                            if (yieldMSecs == 0) {
                                 Thread.yield();
                             } else {
-                                Thread.sleep(yieldMSecCount);
+                                Thread.sleep(yieldMSecs);
                             }
                         } catch (InterruptedException e) {
                             // ignore
@@ -548,7 +2025,38 @@ public class TestRunner extends Thread
                         // don't count time yielded or sleeping as part of next task time
                         newTime= System.currentTimeMillis();
                     }
+                    if (control.getVersion() != controlVersion) {
+                        applyControl();
+                        if (id >= activeThreads) {
+                            System.out.println("thread " + id + " : parked");
+                            control.threadParked();
+                            // wait to be reactivated or for the run to end
+                            while (id >= activeThreads && loopCond.check(iterationCounter) && !control.isEnded()) {
+                                try {
+                                    Thread.sleep(100);
+                                } catch (InterruptedException e) {
+                                    // ignore
+                                }
+                                if (control.getVersion() != controlVersion) {
+                                    applyControl();
+                                }
+                            }
+                            // only resume if reactivated. a thread still switched off when the time
+                            // runs out or the other workers have all finished ends where it is
+                            if (id >= activeThreads || !loopCond.check(iterationCounter) || !control.threadUnparked()) {
+                                System.out.println("thread " + id + " : parked at end of run");
+                                parkedAtEnd = true;
+                                break iterate;
+                            }
+                            System.out.println("thread " + id + " : unparked");
+                            // don't count time parked as part of next task time
+                            newTime= System.currentTimeMillis();
+                        }
+                    }
                     currentTime = newTime;
+                    if (timeline != null) {
+                        sliceStartNanos = System.nanoTime();
+                    }
                 }
             }
 
@@ -557,20 +2065,50 @@ public class TestRunner extends Thread
             // this thread has allocated a fixed amount rather than every time round the loop
             // (the amount allocated every time round the loop is proportional to itemTotalThousands)
 
-            if (random.nextInt(DUMP_LONG_TERM_ODDS) <= itemTotalThousands) {
+            if (workload.purge(itemTotalThousands)) {
+                purgeCount++;
                 // System.out.println(id + " : (" + iteration + ") purge[" + itemStart + "->" + (itemStart + itemCount - 1) + "]");
-                longTermMap = new WorkItemMap();
-                countMapAllocate();
+                if (sharedLongTermMap != null) {
+                    sharedLongTermMap.purge(itemStart, itemCount);
+                } else {
+                    longTermMap = new WorkItemMap();
+                    countMapAllocate();
+                }
+                if (longTermItems != null) {
+                    Arrays.fill(longTermItems, null);
+                }
             }
 
             // System.out.println("thread " + id + " : loop " + (iteration + 1));
         }
+        iterations = iterationCounter;
+        if (!parkedAtEnd) {
+            control.threadFinished();
+        }
+        try {
+            workload.close();
+        } catch (IOException e) {
+            System.out.println("thread " + id + " : " + e.getMessage());
+        }
+        publishedItems = itemsProcessed;
+        publishedAllocation = allocationCount;
+        publishedPromotions = promotionCount;
+        publishedPurges = purgeCount;
         System.out.println("thread " + id + " : done [" + iterationCounter + "] iterations");
         System.out.println("thread " + id + " : end");
     }
 
     private LoopCondition createLoopCondition() {
         final long startTime = System.currentTimeMillis();
+        // a replayed run lasts as long as its trace
+        if (replayDir != null) {
+            return new LoopCondition() {
+                @Override
+                public boolean check(int counter) {
+                    return true;
+                }
+            };
+        }
         // if duration is set, use that
         if (duration > 0) {
             return new LoopCondition() {
@@ -593,67 +2131,135 @@ public class TestRunner extends Thread
     /**
      * the inner loop core operation which allocates an item, inserts it in the short term map and,
      * potentially, promotes the old item into the long term map
-     * @param random a source of random values
      * @param i an offset from the threads item start index identifying both the short term and long term
      * work item which may need to be modified.
      * @param bias a value between 6 and 15 used to scale the size of the data blocks hung off this
      * item from 50% to 140% of the nominal size
      */
-    private void doOneItem(Random random, int i, int bias) {
+    private void doOneItem(int i, int bias) {
         int idx = itemStart + i;
         String name = "item " + idx;
         WorkItem item = shortTermMap.get(name);
         // we promote the short term item if the long term map is empty
         // we also promote it at random but with a skew for certain elements to vary their lifetime
-        if (longTermMap.get(name) == null) {
-            longTermMap.put(name, item);
+        // we increase the multiplier for a specific 1 in 8 items so they tend to live longer
+        int multiplier = ((i & 7) == 0 ? 10 : 1);
+        if (workload.promote(lookupLongTerm(name) == null, multiplier)) {
+            // promote this item into the long term map -- deleting any existing entry
+            promote(name, item);
+            // TODO hmm, assumes replace cost same as add cost!
             countMapAllocate();
-        } else {
-            // we increase the multiplier for a specific 1 in 8 items so they tend to live longer
-            int multiplier = ((i & 7) == 0 ? 10 : 1);
-            int ratio = PROMOTION_ODDS * multiplier;
-            // we vary the odds randomly per item but ensure that they average to 1 in PROMOTION_ODDS
-            int randomValue = random.nextInt(2 * ratio);
-            int cutoff = random.nextInt(3); // odds are uniformly either 1/2N, 2/2N or 3/2N
-            if (randomValue <= cutoff) {
-                // promote this item into the long term map -- deleting any existing entry
-                longTermMap.put(name, item);
-                // TODO hmm, assumes replace cost same as add cost!
-                countMapAllocate();
+            if (longTermItems != null) {
+                longTermItems[i] = item;
             }
         }
         // now create a new version of this item and maybe link it into a chain
         // note that we will never create a cycle
 
-        int size_randomizer = random.nextInt(MEGA_LARGE_OBJECT_ODDS);
-        if (size_randomizer == 0) {
-            // ok, create a 1 Mb object
-            item = new WorkItem(name, 1, 1024 * 1024 * bias / 10);
-        } else {
-            size_randomizer = random.nextInt(LARGE_OBJECT_ODDS);
-            if (size_randomizer == 0) {
+        int slotCount = (mutationRate > 0 ? mutationSlots : 0);
+        switch (workload.sizeClass()) {
+            case Workload.SIZE_MEGA:
+                // ok, create a 1 Mb object
+                item = new WorkItem(name, 1, 1024 * 1024 * bias / 10, slotCount);
+                break;
+            case Workload.SIZE_LARGE:
                 // one very large object 32K
-                item = new WorkItem(name, 1, 32 * 1024  * bias / 10);
-            } else if (size_randomizer < 4) {
+                item = new WorkItem(name, 1, 32 * 1024  * bias / 10, slotCount);
+                break;
+            case Workload.SIZE_MEDIUM:
                 // 2 medium objects 2K each
-                item = new WorkItem(name, 2, 1024 * bias / 10);
-            } else {
+                item = new WorkItem(name, 2, 1024 * bias / 10, slotCount);
+                break;
+            default:
                 // N small objects about 32 bytes each
-                item = new WorkItem(name, blockCount, 32 * bias / 10);
-            }
+                item = new WorkItem(name, blocks, 32 * bias / 10, slotCount);
+                break;
         }
         countItemAllocate(item);
-        if (random.nextInt(LINK_ODDS) == 0) {
-            int linkIdx = itemStart + random.nextInt(itemCount);
-            String linkName = "item " + linkIdx;
-            WorkItem linkItem = shortTermMap.get(linkName);
+        WorkItem linkItem = null;
+        if (sharedLongTermMap != null) {
+            int linkIdx = workload.sharedLink(itemCount * threadCount);
+            if (linkIdx != Workload.NO_LINK) {
+                // link to a long lived item which may belong to any thread. the new item is not
+                // yet reachable from any other item so this still cannot create a cycle
+                linkItem = sharedLongTermMap.get("item " + linkIdx);
+                if (linkItem == null) {
+                    linkItem = shortTermMap.get("item " + (itemStart + workload.fallbackLink(itemCount)));
+                }
+            }
+        } else {
+            int linkOffset = workload.link(itemCount);
+            if (linkOffset != Workload.NO_LINK) {
+                String linkName = "item " + (itemStart + linkOffset);
+                linkItem = shortTermMap.get(linkName);
+            }
+        }
+        if (linkItem != null) {
             item.refer(linkItem);
         }
+        workload.endItem();
         shortTermMap.put(name, item);
 
-        item.doWork(i, computationCount);
+        item.doWork(i, computations, kernel);
         // TODO hmm, assumes replace cost same as add cost!
         countMapAllocate();
+        if (tlabScenario != null) {
+            allocationCount += tlabScenario.allocate();
+        }
+        if (longTermItems != null) {
+            mutate();
+        }
+        itemsProcessed++;
+        if (itemAdder != null) {
+            itemAdder.increment();
+        }
+    }
+
+    /**
+     * rewrite references in randomly chosen long lived items so that they point at newly
+     * allocated objects, creating old to young references which the collector's write barrier
+     * and remembered sets have to track.
+     */
+    private void mutate()
+    {
+        for (int k = 0; k < mutationRate; k++) {
+            WorkItem target = longTermItems[mutationRandom.nextInt(itemCount)];
+            if (target != null && target.getSlotCount() > 0) {
+                target.setSlot(mutationRandom.nextInt(target.getSlotCount()), new byte[MUTATION_BYTES]);
+                allocationCount += 16 + MUTATION_BYTES;
+                mutationCount++;
+            }
+        }
+    }
+
+    /**
+     * look up an item in the long term map, which may be shared
+     * @param name the item name
+     * @return the item or null if it is not present
+     */
+    WorkItem lookupLongTerm(String name)
+    {
+        if (sharedLongTermMap != null) {
+            return sharedLongTermMap.get(name);
+        }
+        return longTermMap.get(name);
+    }
+
+    /**
+     * add or replace an item in the long term map. puts into a shared map are timed.
+     * @param name the item name
+     * @param item the item
+     */
+    private void promote(String name, WorkItem item)
+    {
+        promotionCount++;
+        if (sharedLongTermMap != null) {
+            long start = System.nanoTime();
+            sharedLongTermMap.put(name, item);
+            putHistogram.count(System.nanoTime() - start);
+        } else {
+            longTermMap.put(name, item);
+        }
     }
 
     public LogHistogram getHistogram()
@@ -666,6 +2272,94 @@ public class TestRunner extends Thread
         return allocationCount;
     }
 
+    public int getItemStart()
+    {
+        return itemStart;
+    }
+
+    WorkItemMap getShortTermMap()
+    {
+        return shortTermMap;
+    }
+
+    /**
+     * @return the worker's own long term map, which stays empty when the long term map is shared
+     */
+    WorkItemMap getLongTermMap()
+    {
+        return longTermMap;
+    }
+
+    public LogHistogram getPutHistogram()
+    {
+        return putHistogram;
+    }
+
+    public long getItemsProcessed()
+    {
+        return itemsProcessed;
+    }
+
+    public long getPublishedItems()
+    {
+        return publishedItems;
+    }
+
+    public long getPublishedAllocation()
+    {
+        return publishedAllocation;
+    }
+
+    public long getPublishedPromotions()
+    {
+        return publishedPromotions;
+    }
+
+    public long getPublishedPurges()
+    {
+        return publishedPurges;
+    }
+
+    public long getPublishedSliceMSecs()
+    {
+        return publishedSliceMSecs;
+    }
+
+    public long getIterations()
+    {
+        return iterations;
+    }
+
+    public LogHistogram getWarmupHistogram()
+    {
+        return warmupHistogram;
+    }
+
+    public long getWarmupMSecs()
+    {
+        return warmupMSecs;
+    }
+
+    public LogHistogram getSlowSyncHistogram()
+    {
+        return slowSyncHistogram;
+    }
+
+    public LogHistogram getSlowSafepointHistogram()
+    {
+        return slowSafepointHistogram;
+    }
+
+    public long getSlowSlices()
+    {
+        return slowSlices;
+    }
+
+    public long getSlowSafepointSlices()
+    {
+        return slowSafepointSlices;
+    }
+
     private interface LoopCondition {
         boolean check(int counter);
     }
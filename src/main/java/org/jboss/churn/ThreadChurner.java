@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ThreadChurner is a thread which starts short lived threads at a fixed rate, so that
+ * the collector has to deal with threads being created and terminated, retiring their
+ * TLABs and adding and removing their stacks from the roots it scans. Each short lived
+ * thread allocates and works on a few WorkItems and then exits.
+ *
+ * The delay between a thread being started and it beginning to run is recorded in a
+ * histogram since thread creation can be held up by safepoints.
+ */
+public class ThreadChurner extends Thread
+{
+    /**
+     * the number of items each short lived thread allocates
+     */
+    private final static int CHILD_ITEMS = 16;
+
+    /**
+     * the number of computations each short lived thread performs on each item
+     */
+    private final static int CHILD_COMPUTATIONS = 32;
+
+    /**
+     * the interval between thread starts in nanoseconds
+     */
+    private long intervalNanos;
+
+    private ThreadMXBean threads;
+
+    private long startedCount;
+
+    /**
+     * count of the short lived threads which have finished
+     */
+    private AtomicLong finishedCount;
+
+    private int peakThreadCount;
+
+    /**
+     * a histogram of the delay between starting a thread and it running in usecs. it is
+     * updated by the short lived threads so access to it is synchronized
+     */
+    private LogHistogram startHistogram;
+
+    /**
+     * set when the churner should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * create a churner
+     * @param threadsPerSec the number of threads to start per second
+     */
+    public ThreadChurner(int threadsPerSec)
+    {
+        super("churn thread churner");
+        setDaemon(true);
+        this.intervalNanos = 1000000000L / threadsPerSec;
+        this.threads = ManagementFactory.getThreadMXBean();
+        this.startedCount = 0;
+        this.finishedCount = new AtomicLong();
+        this.peakThreadCount = 0;
+        this.startHistogram = new LogHistogram(24, true, 10);
+        this.stopped = false;
+    }
+
+    public void run()
+    {
+        threads.resetPeakThreadCount();
+        long deadline = System.nanoTime();
+        while (!stopped) {
+            final long start = System.nanoTime();
+            Thread child = new Thread("churn short lived " + startedCount) {
+                @Override
+                public void run() {
+                    long delay = (System.nanoTime() - start) / 1000;
+                    synchronized (startHistogram) {
+                        startHistogram.count(delay);
+                    }
+                    for (int i = 0; i < CHILD_ITEMS; i++) {
+                        WorkItem item = new WorkItem(getName(), 4, 32);
+                        item.doWork(i, CHILD_COMPUTATIONS);
+                    }
+                    finishedCount.incrementAndGet();
+                }
+            };
+            child.setDaemon(true);
+            child.start();
+            startedCount++;
+            deadline += intervalNanos;
+            long now = System.nanoTime();
+            if (deadline > now) {
+                LockSupport.parkNanos(deadline - now);
+            } else if (now - deadline > 1000000000L) {
+                // don't try to catch up after falling more than a second behind
+                deadline = now;
+            }
+        }
+        peakThreadCount = threads.getPeakThreadCount();
+    }
+
+    /**
+     * ask the churner to stop and wait for it to do so
+     */
+    public void finish()
+    {
+        stopped = true;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    public long getStartedCount()
+    {
+        return startedCount;
+    }
+
+    public long getFinishedCount()
+    {
+        return finishedCount.get();
+    }
+
+    /**
+     * @return the peak number of live threads in the JVM while the churner was running
+     */
+    public int getPeakThreadCount()
+    {
+        return peakThreadCount;
+    }
+
+    /**
+     * @return a copy of the start delay histogram since threads still running may update it
+     */
+    public LogHistogram getHistogram()
+    {
+        LogHistogram copy = new LogHistogram(24, true, 10);
+        synchronized (startHistogram) {
+            copy.accumulate(startHistogram);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+/**
+ * A TlabScenario adds short lived allocations to each work item a thread processes in a
+ * pattern designed to stress thread local allocation buffers (TLABs):
+ * <ul>
+ *     <li>skew -- one thread in four allocates heavily while the others allocate nothing
+ *     extra, so TLAB sizing has to cope with very different per thread allocation rates</li>
+ *     <li>alternate -- a tiny array for every item and a large array for every 16th item, so
+ *     TLABs are retired early or large arrays are allocated outside TLABs</li>
+ *     <li>burst -- every BURST_INTERVAL items a burst of many small arrays, so the allocation
+ *     rate is alternately normal and very high</li>
+ * </ul>
+ * The arrays are dropped straight away but are published to a field first so that the JIT
+ * cannot eliminate them.
+ */
+public class TlabScenario
+{
+    public final static int MODE_SKEW = 0;
+    public final static int MODE_ALTERNATE = 1;
+    public final static int MODE_BURST = 2;
+
+    public final static String[] MODE_NAMES = { "skew", "alternate", "burst" };
+
+    /**
+     * approximate size of an array header in bytes
+     */
+    private final static int ARRAY_HEADER_BYTES = 16;
+
+    /**
+     * number and size of arrays allocated per item by the heavy threads in skew mode
+     */
+    private final static int SKEW_COUNT = 8;
+    private final static int SKEW_BYTES = 128;
+
+    /**
+     * sizes of the tiny and large arrays in alternate mode and how often a large one is allocated
+     */
+    private final static int TINY_BYTES = 16;
+    private final static int LARGE_BYTES = 64 * 1024;
+    private final static int LARGE_INTERVAL = 16;
+
+    /**
+     * how often a burst happens, how many arrays it allocates and their size in burst mode
+     */
+    private final static int BURST_INTERVAL = 10000;
+    private final static int BURST_COUNT = 10000;
+    private final static int BURST_BYTES = 256;
+
+    private int mode;
+
+    /**
+     * true if this thread is one of the heavy allocators in skew mode
+     */
+    private boolean heavy;
+
+    /**
+     * the number of items processed
+     */
+    private long itemCount;
+
+    /**
+     * the last array allocated
+     */
+    private byte[] sink;
+
+    public TlabScenario(int mode, int threadId)
+    {
+        this.mode = mode;
+        this.heavy = (threadId % 4 == 0);
+        this.itemCount = 0;
+        this.sink = null;
+    }
+
+    /**
+     * perform the extra allocations for one work item
+     * @return the number of bytes allocated
+     */
+    public long allocate()
+    {
+        itemCount++;
+        long allocated = 0;
+        switch (mode) {
+            case MODE_SKEW:
+                if (heavy) {
+                    for (int i = 0; i < SKEW_COUNT; i++) {
+                        sink = new byte[SKEW_BYTES];
+                        allocated += SKEW_BYTES + ARRAY_HEADER_BYTES;
+                    }
+                }
+                break;
+            case MODE_ALTERNATE:
+                sink = new byte[TINY_BYTES];
+                allocated += TINY_BYTES + ARRAY_HEADER_BYTES;
+                if (itemCount % LARGE_INTERVAL == 0) {
+                    sink = new byte[LARGE_BYTES];
+                    allocated += LARGE_BYTES + ARRAY_HEADER_BYTES;
+                }
+                break;
+            case MODE_BURST:
+                if (itemCount % BURST_INTERVAL == 0) {
+                    for (int i = 0; i < BURST_COUNT; i++) {
+                        sink = new byte[BURST_BYTES];
+                        allocated += BURST_BYTES + ARRAY_HEADER_BYTES;
+                    }
+                }
+                break;
+        }
+        return allocated;
+    }
+
+    /**
+     * @return the last array allocated
+     */
+    public byte[] getSink()
+    {
+        return sink;
+    }
+
+    public static String getModeName(int mode)
+    {
+        return MODE_NAMES[mode];
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * TlabStats gathers TLAB statistics for a run from two sources:
+ * <ul>
+ *     <li>the HotSpot sun.gc.tlab perf counters. the JVM publishes these at each GC and they
+ *     describe the TLAB activity since the previous GC so they are sampled after every GC and
+ *     summed. a TlabStats is a thread which polls the GC count every msec so that the
+ *     workers never have to stop to sample the counters.</li>
+ *     <li>a JFR recording of jdk.ObjectAllocationInNewTLAB and jdk.ObjectAllocationOutsideTLAB
+ *     events, counting TLAB refills and allocations made outside a TLAB. stack traces are not
+ *     recorded to keep the overhead down. the recording is capped at MAX_RECORDING_BYTES and
+ *     MAX_RECORDING_AGE so on a long run the counts only cover the most recent part of the run,
+ *     which is noted in the report.</li>
+ * </ul>
+ * Either source may be unavailable in which case it is left out of the report.
+ */
+public class TlabStats extends Thread
+{
+    /**
+     * the time between polls of the GC count in nanoseconds
+     */
+    private final static long POLL_NANOS = 1000 * 1000;
+
+    /**
+     * the limits on the size and age of the JFR recording, beyond which older events are
+     * discarded
+     */
+    private final static long MAX_RECORDING_BYTES = 64 * 1024 * 1024;
+    private final static Duration MAX_RECORDING_AGE = Duration.ofMinutes(10);
+
+    /**
+     * the counters summed over every GC epoch
+     */
+    private final static String[] SUMMED_COUNTERS = { "alloc", "fills", "gcWaste", "refillWaste", "slowAlloc" };
+
+    /**
+     * the counters holding a per epoch value of which the maximum is reported
+     */
+    private final static String[] MAX_COUNTERS = { "maxFills", "allocThreads", "maxSlowAlloc" };
+
+    private PerfCounters counters;
+
+    private int[] gcCountOffsets;
+
+    private int[] summedOffsets;
+
+    private int[] maxOffsets;
+
+    private long[] sums;
+
+    private long[] maxes;
+
+    private long lastGCCount;
+
+    private Recording recording;
+
+    private long newTLABCount;
+
+    private long newTLABBytes;
+
+    private long outsideCount;
+
+    private long outsideBytes;
+
+    /**
+     * the times the recording started and stopped and the time of the earliest event it still
+     * held when it was read
+     */
+    private Instant recordingStart;
+    private Instant recordingEnd;
+    private Instant firstEvent;
+
+    /**
+     * set when the sampling thread should stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * create the statistics, locating the perf counters and starting the JFR recording if available
+     * @param counters the perf counters or null if they are unavailable
+     */
+    public TlabStats(PerfCounters counters)
+    {
+        super("churn tlab sampler");
+        setDaemon(true);
+        this.stopped = false;
+        this.counters = counters;
+        if (counters != null) {
+            List<String> names = counters.names("sun.gc.collector.", ".invocations");
+            gcCountOffsets = new int[names.size()];
+            for (int i = 0; i < gcCountOffsets.length; i++) {
+                gcCountOffsets[i] = counters.find(names.get(i));
+            }
+            summedOffsets = new int[SUMMED_COUNTERS.length];
+            for (int i = 0; i < summedOffsets.length; i++) {
+                summedOffsets[i] = counters.find("sun.gc.tlab." + SUMMED_COUNTERS[i]);
+            }
+            maxOffsets = new int[MAX_COUNTERS.length];
+            for (int i = 0; i < maxOffsets.length; i++) {
+                maxOffsets[i] = counters.find("sun.gc.tlab." + MAX_COUNTERS[i]);
+            }
+            if (gcCountOffsets.length == 0 || summedOffsets[0] < 0) {
+                this.counters = null;
+            } else {
+                lastGCCount = gcCount();
+            }
+        }
+        sums = new long[SUMMED_COUNTERS.length];
+        maxes = new long[MAX_COUNTERS.length];
+        try {
+            if (FlightRecorder.isAvailable()) {
+                recording = new Recording();
+                recording.setName("churn tlab");
+                recording.enable("jdk.ObjectAllocationInNewTLAB").withoutStackTrace();
+                recording.enable("jdk.ObjectAllocationOutsideTLAB").withoutStackTrace();
+                recording.setToDisk(true);
+                recording.setMaxSize(MAX_RECORDING_BYTES);
+                recording.setMaxAge(MAX_RECORDING_AGE);
+                recordingStart = Instant.now();
+                recording.start();
+            }
+        } catch (Throwable t) {
+            // JFR is missing or disabled
+            recording = null;
+        }
+    }
+
+    public void run()
+    {
+        if (counters == null) {
+            return;
+        }
+        while (!stopped) {
+            sample();
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+    }
+
+    /**
+     * add the counters for the last GC epoch to the totals if a GC has happened since the last
+     * call. this does not allocate. it is only called by the sampling thread or once that
+     * thread has stopped.
+     */
+    private void sample()
+    {
+        if (counters == null) {
+            return;
+        }
+        long gcCount = gcCount();
+        if (gcCount == lastGCCount) {
+            return;
+        }
+        lastGCCount = gcCount;
+        for (int i = 0; i < summedOffsets.length; i++) {
+            if (summedOffsets[i] >= 0) {
+                sums[i] += counters.get(summedOffsets[i]);
+            }
+        }
+        for (int i = 0; i < maxOffsets.length; i++) {
+            if (maxOffsets[i] >= 0) {
+                maxes[i] = Math.max(maxes[i], counters.get(maxOffsets[i]));
+            }
+        }
+    }
+
+    /**
+     * @return the total number of collections of all kinds
+     */
+    private long gcCount()
+    {
+        long total = 0;
+        for (int i = 0; i < gcCountOffsets.length; i++) {
+            total += counters.get(gcCountOffsets[i]);
+        }
+        return total;
+    }
+
+    /**
+     * stop the sampling thread and the JFR recording and count the recorded events
+     */
+    public void finish()
+    {
+        stopped = true;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        sample();
+        if (recording == null) {
+            return;
+        }
+        File file = null;
+        try {
+            recording.stop();
+            recordingEnd = Instant.now();
+            file = File.createTempFile("churn-tlab", ".jfr");
+            recording.dump(file.toPath());
+            RecordingFile events = new RecordingFile(file.toPath());
+            try {
+                while (events.hasMoreEvents()) {
+                    RecordedEvent event = events.readEvent();
+                    if (firstEvent == null || event.getStartTime().isBefore(firstEvent)) {
+                        firstEvent = event.getStartTime();
+                    }
+                    String name = event.getEventType().getName();
+                    if (name.equals("jdk.ObjectAllocationInNewTLAB")) {
+                        newTLABCount++;
+                        newTLABBytes += event.getLong("tlabSize");
+                    } else if (name.equals("jdk.ObjectAllocationOutsideTLAB")) {
+                        outsideCount++;
+                        outsideBytes += event.getLong("allocationSize");
+                    }
+                }
+            } finally {
+                events.close();
+            }
+        } catch (IOException e) {
+            System.out.println("failed to read TLAB recording : " + e.getMessage());
+            recording.close();
+            recording = null;
+            return;
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+        recording.close();
+    }
+
+    /**
+     * print the statistics
+     * @param str the stream to print to
+     */
+    public void printTo(PrintStream str)
+    {
+        if (counters != null) {
+            // sizes are counted in heap words
+            StringBuilder builder = new StringBuilder("TLAB perf counters (sizes in words) :");
+            for (int i = 0; i < SUMMED_COUNTERS.length; i++) {
+                builder.append(' ').append(SUMMED_COUNTERS[i]).append(' ').append(sums[i]);
+            }
+            for (int i = 0; i < MAX_COUNTERS.length; i++) {
+                builder.append(' ').append(MAX_COUNTERS[i]).append(' ').append(maxes[i]);
+            }
+            str.println(builder);
+            if (sums[0] > 0) {
+                str.println(String.format("TLAB waste %.2f%% of TLAB allocation",
+                        ((sums[2] + sums[3]) * 100.0) / sums[0]));
+            }
+        } else {
+            str.println("TLAB perf counters unavailable");
+        }
+        if (recording != null) {
+            String span = "";
+            if (firstEvent != null && Duration.between(recordingStart, firstEvent).getSeconds() > 0) {
+                // older events were discarded to keep the recording within its limits
+                span = " in the last " + Duration.between(firstEvent, recordingEnd).getSeconds() + " of " +
+                        Duration.between(recordingStart, recordingEnd).getSeconds() + " secs";
+            }
+            str.println(String.format("TLAB JFR events%s : %d new TLABs (%d MBs) %d outside TLAB allocations (%d MBs)",
+                    span, newTLABCount, newTLABBytes / (1024 * 1024), outsideCount, outsideBytes / (1024 * 1024)));
+        } else {
+            str.println("TLAB JFR events unavailable");
+        }
+    }
+}
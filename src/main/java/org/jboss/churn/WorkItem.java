@@ -34,12 +34,23 @@ public class WorkItem
     private WorkItem reference;
     private byte[][] data;
 
+    /**
+     * references which are rewritten while the item is live to stress write barriers or null
+     * if the item has no slots
+     */
+    private Object[] slots;
+
     WorkItem(String name, int count)
     {
         this(name, count, 250);
     }
 
     WorkItem(String name, int count, int size)
+    {
+        this(name, count, size, 0);
+    }
+
+    WorkItem(String name, int count, int size, int slotCount)
     {
         this.name = name;
         this.reference = this;
@@ -47,6 +58,7 @@ public class WorkItem
         for (int i = 0; i < count; i++) {
             this.data[i] = new byte[size]; // default size implies about 256 bytes total per block
         }
+        this.slots = (slotCount > 0 ? new Object[slotCount] : null);
     }
 
     String getName()
@@ -79,18 +91,171 @@ public class WorkItem
         reference = item;
     }
 
+    public int getSlotCount()
+    {
+        return (slots != null ? slots.length : 0);
+    }
+
+    void setSlot(int i, Object value)
+    {
+        slots[i] = value;
+    }
+
     void clear()
     {
         reference = this;
     }
 
     public void doWork(int initial, int computationCount) {
-        // pretend to do something with this object
-        byte[] block = data[0];
-        int l = data.length;
-        for (int i = 0; i < computationCount; i++) {
-            byte value = (byte)(initial + i);
-            block[i % l] ^= value;
+        doWork(initial, computationCount, KERNEL_XOR);
+    }
+
+    /**
+     * the original kernel which xors computationCount values into the first few bytes of the
+     * first block
+     */
+    public final static int KERNEL_XOR = 0;
+
+    /**
+     * a kernel which reads and writes every byte of every block once per 32 computations
+     */
+    public final static int KERNEL_STREAM = 1;
+
+    /**
+     * a kernel which performs computationCount reads one cache line apart across all the
+     * blocks of each item in the reference chain
+     */
+    public final static int KERNEL_STRIDED = 2;
+
+    /**
+     * a kernel which performs computationCount reads at random offsets in random blocks of
+     * successive items in the reference chain
+     */
+    public final static int KERNEL_RANDOM = 3;
+
+    /**
+     * a kernel which computes an FNV-1a hash of every byte of every block once per 32
+     * computations
+     */
+    public final static int KERNEL_HASH = 4;
+
+    /**
+     * names of the kernels indexed by kernel number
+     */
+    public final static String[] KERNEL_NAMES = { "xor", "stream", "strided", "random", "hash" };
+
+    /**
+     * the number of bytes between successive reads made by the strided kernel
+     */
+    private final static int STRIDE = 64;
+
+    /**
+     * the maximum number of links followed by the chain kernels before returning to the
+     * head of the chain
+     */
+    private final static int MAX_CHAIN_LENGTH = 1000;
+
+    /**
+     * pretend to do something with this object. none of the kernels allocate.
+     * @param initial a seed value varied per call
+     * @param computationCount the number of computations to perform
+     * @param kernel the kernel used to perform the computations
+     */
+    public void doWork(int initial, int computationCount, int kernel) {
+        switch (kernel) {
+            case KERNEL_XOR: {
+                byte[] block = data[0];
+                int l = data.length;
+                for (int i = 0; i < computationCount; i++) {
+                    byte value = (byte)(initial + i);
+                    block[i % l] ^= value;
+                }
+            }
+            break;
+            case KERNEL_STREAM: {
+                int passes = (computationCount + 31) / 32;
+                for (int pass = 0; pass < passes; pass++) {
+                    byte value = (byte)(initial + pass);
+                    for (byte[] block : data) {
+                        for (int j = 0; j < block.length; j++) {
+                            block[j] = (byte)((block[j] + value) ^ j);
+                        }
+                    }
+                }
+            }
+            break;
+            case KERNEL_STRIDED: {
+                long sum = 0;
+                WorkItem item = this;
+                int block = 0;
+                // start each block at an offset below the stride reduced modulo the block
+                // length so that blocks smaller than the stride are still read
+                int start = initial & (STRIDE - 1);
+                int offset = start % Math.max(1, data[0].length);
+                int length = 0;
+                for (int i = 0; i < computationCount; i++) {
+                    byte[] bytes = item.data[block];
+                    if (offset < bytes.length) {
+                        sum += bytes[offset];
+                        offset += STRIDE;
+                        continue;
+                    }
+                    // move on to the next block or the next item in the chain
+                    if (++block == item.data.length) {
+                        block = 0;
+                        WorkItem next = item.reference;
+                        if (next == item || ++length == MAX_CHAIN_LENGTH) {
+                            next = this;
+                            length = 0;
+                        }
+                        item = next;
+                    }
+                    offset = start % Math.max(1, item.data[block].length);
+                }
+                data[0][0] ^= (byte)sum;
+            }
+            break;
+            case KERNEL_RANDOM: {
+                long sum = 0;
+                WorkItem item = this;
+                int length = 0;
+                // xorshift so that picking offsets does not allocate or touch shared state
+                int seed = initial | 1;
+                for (int i = 0; i < computationCount; i++) {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 17;
+                    seed ^= seed << 5;
+                    int r = seed & Integer.MAX_VALUE;
+                    byte[] bytes = item.data[r % item.data.length];
+                    if (bytes.length > 0) {
+                        sum += bytes[r % bytes.length];
+                    }
+                    WorkItem next = item.reference;
+                    if (next == item || ++length == MAX_CHAIN_LENGTH) {
+                        next = this;
+                        length = 0;
+                    }
+                    item = next;
+                }
+                data[0][0] ^= (byte)sum;
+            }
+            break;
+            case KERNEL_HASH: {
+                int passes = (computationCount + 31) / 32;
+                int hash = 0x811c9dc5;
+                for (int pass = 0; pass < passes; pass++) {
+                    for (byte[] block : data) {
+                        for (int j = 0; j < block.length; j++) {
+                            hash ^= block[j];
+                            hash *= 0x01000193;
+                        }
+                    }
+                }
+                data[0][0] ^= (byte)(hash ^ initial);
+            }
+            break;
+            default:
+                throw new IllegalArgumentException("invalid kernel " + kernel);
         }
     }
 }
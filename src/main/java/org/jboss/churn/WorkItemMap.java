@@ -31,4 +31,17 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class WorkItemMap extends ConcurrentHashMap<String, WorkItem>
 {
+    public WorkItemMap()
+    {
+        super();
+    }
+
+    /**
+     * create a map sized to hold a given number of items without resizing
+     * @param capacity the number of items
+     */
+    public WorkItemMap(int capacity)
+    {
+        super(capacity);
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.IOException;
+
+/**
+ * A Workload supplies the decisions a worker thread makes while it runs: which items are
+ * linked when the work set is first populated, then, for each item processed, whether
+ * the old item is promoted, how big the new item is and what it links to and, at the
+ * end of each pass, whether the long term map is purged.
+ *
+ * Workers call the per item methods in a fixed order: {@link #promote}, {@link #sizeClass},
+ * {@link #link} or {@link #sharedLink} (the latter possibly followed by
+ * {@link #fallbackLink}) and finally {@link #endItem}. That allows a workload to record
+ * the decisions for an item as a unit and to replay them later.
+ */
+public abstract class Workload
+{
+    /**
+     * size class of a single 1Mb block
+     */
+    public final static int SIZE_MEGA = 0;
+
+    /**
+     * size class of a single 32Kb block
+     */
+    public final static int SIZE_LARGE = 1;
+
+    /**
+     * size class of two 1Kb blocks
+     */
+    public final static int SIZE_MEDIUM = 2;
+
+    /**
+     * size class of blockCount 32 byte blocks
+     */
+    public final static int SIZE_SMALL = 3;
+
+    /**
+     * returned by the link methods when an item should not be linked
+     */
+    public final static int NO_LINK = -1;
+
+    /**
+     * decide whether an item in the initial work set is linked
+     * @param bound the number of items in the work set
+     * @return the offset in the work set of the item to link to or NO_LINK
+     */
+    public abstract int initialLink(int bound);
+
+    /**
+     * decide whether to promote an item to the long term map
+     * @param forced true if the long term map does not hold the item so it must be promoted
+     * @param multiplier a factor by which to reduce the odds of promotion
+     * @return true if the item should be promoted
+     */
+    public abstract boolean promote(boolean forced, int multiplier);
+
+    /**
+     * @return the size class of the next item, one of SIZE_MEGA, SIZE_LARGE, SIZE_MEDIUM or SIZE_SMALL
+     */
+    public abstract int sizeClass();
+
+    /**
+     * decide whether a new item is linked to an item in the thread's own work set
+     * @param bound the number of items in the work set
+     * @return the offset in the work set of the item to link to or NO_LINK
+     */
+    public abstract int link(int bound);
+
+    /**
+     * decide whether a new item is linked to an item in the shared long term map
+     * @param bound the total number of items across all threads
+     * @return the index of the item to link to or NO_LINK
+     */
+    public abstract int sharedLink(int bound);
+
+    /**
+     * pick an item in the thread's own work set to link to when the item picked by
+     * {@link #sharedLink} is not in the shared long term map
+     * @param bound the number of items in the work set
+     * @return the offset in the work set of the item to link to
+     */
+    public abstract int fallbackLink(int bound);
+
+    /**
+     * note that all decisions for the current item have been made
+     */
+    public abstract void endItem();
+
+    /**
+     * decide whether to purge the long term map at the end of a pass
+     * @param threshold the scaled odds of purging
+     * @return true if the long term map should be purged
+     */
+    public abstract boolean purge(int threshold);
+
+    /**
+     * adopt the odds currently held by a control. called by the worker at a slice boundary
+     * after a change. workloads whose decisions are fixed ignore it.
+     * @param control the control holding the new odds
+     */
+    public void tune(ChurnControl control)
+    {
+    }
+
+    /**
+     * @return true if the workload can supply decisions for another pass
+     */
+    public boolean hasMore()
+    {
+        return true;
+    }
+
+    /**
+     * release any resources held by the workload
+     * @throws IOException if the workload could not be saved
+     */
+    public void close() throws IOException
+    {
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * class to ensure that the Compare class merges results by label and flags regressions as expected
+ */
+public class TestCompare extends Assert
+{
+    /**
+     * test that repeat runs are merged but a run found in both its output log and its result
+     * log is only counted once
+     */
+    @Test
+    public void testMerge() throws IOException
+    {
+        File dir = Files.createTempDirectory("churn-compare").toFile();
+        try {
+            RunResult first = result("G1", 10000, 1, 1000);
+            RunResult second = result("G1", 20000, 2, 1000);
+            RunResult other = result("ZGC", 10000, 1, 500);
+            // the output log and the result log of the first run plus the output of two more
+            write(new File(dir, "g1-1.log"), first, other);
+            write(new File(dir, "result.log"), first);
+            write(new File(dir, "g1-2.log"), second);
+
+            Map<String, RunResult> results = Compare.readResults(Collections.singletonList(dir));
+            assertEquals(2, results.size());
+            RunResult g1 = results.get("G1");
+            assertEquals(30000, g1.getElapsedMillis());
+            assertEquals(2000, g1.getHistogram().getSampleCount());
+            assertEquals(30000, g1.getIterations());
+            assertEquals(10000, results.get("ZGC").getElapsedMillis());
+            assertEquals(500, results.get("ZGC").getHistogram().getSampleCount());
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * test that a worse task time percentile counts as a regression once it exceeds both the
+     * relative threshold and the minimum delta
+     */
+    @Test
+    public void testPercentileDiff()
+    {
+        assertEquals(0.0, Compare.delta(0, 0), 1e-9);
+        assertEquals(100.0, Compare.delta(0, 5), 1e-9);
+        assertEquals(50.0, Compare.delta(10, 15), 1e-9);
+        assertEquals(-20.0, Compare.delta(10, 8), 1e-9);
+
+        RunResult base = result("G1", 10000, 1, 1000);
+        // the same run compares without regressions
+        assertEquals(0, Compare.compare(base, result("G1", 10000, 1, 1000)));
+        // every task 1 msec slower is within the default 1 msec minimum delta
+        assertEquals(0, Compare.compare(base, result("G1", 10000, 2, 1000)));
+        // 10 msec tasks worsen every percentile
+        int regressions = Compare.compare(base, result("G1", 10000, 10, 1000));
+        assertEquals(RunResult.PERCENTILES.length, regressions);
+    }
+
+    /**
+     * @return a result for a run of 1000 iterations per second whose tasks all took the
+     * same time
+     */
+    private static RunResult result(String label, long elapsedMillis, long taskMillis, int tasks)
+    {
+        LogHistogram histogram = new LogHistogram(true, 10);
+        for (int i = 0; i < tasks; i++) {
+            histogram.count(taskMillis);
+        }
+        return new RunResult(label, 1, elapsedMillis, elapsedMillis, 1024L * 1024 * elapsedMillis, 0, 0, histogram);
+    }
+
+    private static void write(File file, RunResult... results) throws IOException
+    {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("some other output\n");
+            for (RunResult result : results) {
+                writer.write(result.encode() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
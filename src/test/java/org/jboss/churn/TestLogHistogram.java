@@ -27,6 +27,12 @@ package org.jboss.churn;
 import junit.framework.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * class to ensure that the LogHistogram class behaves as expected
  */
@@ -175,4 +181,59 @@ public class TestLogHistogram extends Assert
         assertTrue(histogram.getCount(10, 9) == 1);
         histogram.printTo(System.out);
     }
+
+    /**
+     * test percentile estimates are taken from the bucket containing the ranked sample
+     */
+    @Test
+    public void testPercentile()
+    {
+        LogHistogram  histogram = new LogHistogram(11);
+        assertTrue(histogram.getPercentile(50) == 0);
+        // 90 samples in bucket 0, 9 in bucket 2 and 1 in bucket 10
+        for (int i = 0; i < 90; i++) {
+            histogram.count(1);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.count(5);
+        }
+        histogram.count(1500);
+
+        assertTrue(histogram.getPercentile(50) == 1);
+        assertTrue(histogram.getPercentile(90) == 1);
+        assertTrue(histogram.getPercentile(95) == 7);
+        assertTrue(histogram.getPercentile(99) == 7);
+        assertTrue(histogram.getPercentile(100) == 2047);
+    }
+
+    /**
+     * test a histogram written in binary form reads back with the same counts
+     */
+    @Test
+    public void testWriteAndRead() throws IOException
+    {
+        LogHistogram  histogram = new LogHistogram(11, true, 10);
+        histogram.count(0);
+        histogram.count(3);
+        histogram.count(6);
+        histogram.count(1147);
+        histogram.count(1547);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeTo(new DataOutputStream(bytes));
+        LogHistogram copy = LogHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertTrue(copy.getSampleCount() == 5);
+        assertTrue(copy.getCount(0) == 1);
+        assertTrue(copy.getCount(1, 5) == 1);
+        assertTrue(copy.getCount(2, 5) == 1);
+        assertTrue(copy.getCount(10) == 2);
+        assertTrue(copy.getCount(10, 1) == 1);
+        assertTrue(copy.getCount(10, 5) == 1);
+
+        // the copy must still be compatible with the original
+        copy.accumulate(histogram);
+        assertTrue(copy.getSampleCount() == 10);
+        assertTrue(copy.getCount(10, 5) == 2);
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.churn;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * class to ensure that the SliceTimeline class derives pauses and computes MMU as expected
+ */
+public class TestSliceTimeline extends Assert
+{
+    private final static long MSEC = 1000000L;
+
+    /**
+     * test that clustered pauses give a lower MMU than the same pauses spread out
+     */
+    @Test
+    public void testClusteredPauses()
+    {
+        // 1 msec slices for 10 secs with ten 11 msec slices i.e. ten 10 msec pauses clustered
+        // 20 msecs apart in the first 200 msecs
+        SliceTimeline clustered = timeline(10000, 10, 10);
+        // the same pauses spaced 1000 slices apart
+        SliceTimeline spread = timeline(10000, 10, 1000);
+        long[] windows = { 10 * MSEC, 100 * MSEC, 1000 * MSEC, 20000 * MSEC };
+        long[] worstStarts = new long[windows.length];
+
+        long[][] pauses = clustered.pauses();
+        assertEquals(10, pauses[0].length);
+        assertEquals(10 * MSEC, pauses[1][0] - pauses[0][0]);
+        double[] mmu = SliceTimeline.mmu(pauses[0], pauses[1], clustered.getFrom(), clustered.getTo(), windows, worstStarts);
+        // a whole 10 msec window fits inside a pause
+        assertEquals(0.0, mmu[0], 1e-9);
+        // a 100 msec window holds five pauses with 10 msecs of progress between them
+        assertEquals(0.5, mmu[1], 1e-9);
+        // a 1 sec window holds 100 msecs of pause
+        assertEquals(0.9, mmu[2], 1e-9);
+        // a window longer than the timeline has no MMU
+        assertEquals(-1.0, mmu[3], 1e-9);
+
+        pauses = spread.pauses();
+        mmu = SliceTimeline.mmu(pauses[0], pauses[1], spread.getFrom(), spread.getTo(), windows, worstStarts);
+        assertEquals(0.0, mmu[0], 1e-9);
+        // a 100 msec or 1 sec window can only overlap one pause
+        assertEquals(0.9, mmu[1], 1e-9);
+        assertEquals(0.99, mmu[2], 1e-9);
+    }
+
+    /**
+     * test that only the most recent slices are kept once the buffers are full
+     */
+    @Test
+    public void testWraparound()
+    {
+        SliceTimeline timeline = new SliceTimeline(100);
+        for (int i = 0; i < 250; i++) {
+            timeline.record(i * MSEC, (i + 1) * MSEC);
+        }
+        assertEquals(100, timeline.size());
+        assertEquals(250, timeline.getRecordedCount());
+        assertEquals(150 * MSEC, timeline.getFrom());
+        assertEquals(250 * MSEC, timeline.getTo());
+        assertEquals(0, timeline.pauses()[0].length);
+    }
+
+    /**
+     * build a timeline of back to back 1 msec slices in which a number of slices take 11 msecs
+     * @param slices the number of slices
+     * @param count the number of slow slices
+     * @param spacing the number of slices from the start of one slow slice to the next
+     */
+    private SliceTimeline timeline(int slices, int count, int spacing)
+    {
+        SliceTimeline timeline = new SliceTimeline(slices);
+        long time = 0;
+        for (int i = 0; i < slices; i++) {
+            boolean slow = (i % spacing == 0 && i / spacing < count);
+            long end = time + (slow ? 11 : 1) * MSEC;
+            timeline.record(time, end);
+            time = end;
+        }
+        return timeline;
+    }
+}
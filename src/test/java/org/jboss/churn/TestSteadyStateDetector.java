@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.churn;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * class to ensure that the SteadyStateDetector class behaves as expected
+ */
+public class TestSteadyStateDetector extends Assert
+{
+    /**
+     * test that a falling median keeps the detector in warmup and a stable one ends it
+     */
+    @Test
+    public void testMedianDetection()
+    {
+        SteadyStateDetector detector = new SteadyStateDetector(SteadyStateDetector.MODE_MEDIAN);
+        // windows with medians 100, 50, 25 are all unstable
+        long[] medians = { 100, 50, 25 };
+        for (long median : medians) {
+            for (int i = 0; i < SteadyStateDetector.WINDOW_SIZE; i++) {
+                assertFalse(detector.sample(median));
+            }
+        }
+        // three more windows within tolerance of 25 end the warmup on the last sample
+        for (int w = 0; w < SteadyStateDetector.STABLE_COUNT; w++) {
+            for (int i = 0; i < SteadyStateDetector.WINDOW_SIZE - 1; i++) {
+                assertFalse(detector.sample(i % 2 == 0 ? 24 : 26));
+            }
+            boolean steady = detector.sample(25);
+            assertTrue(steady == (w == SteadyStateDetector.STABLE_COUNT - 1));
+        }
+    }
+}